@@ -0,0 +1,91 @@
+package bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import codegen.Codegen;
+import parser.Parser;
+import parser.Parser.Token;
+import parser.Program;
+
+/**
+ * Times each phase of the compiler on its own, from the output of the phase
+ * before. Run with the gc profiler to see allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xss64m", "-Xmx2G"})
+public class PhaseBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int definitions;
+
+    @Param({"10"})
+    public int letDepth;
+
+    @Param({"2"})
+    public int fanOut;
+
+    @Param({"2"})
+    public int callDepth;
+
+    private Path file;
+    private List<Token> tokens;
+    private Program program;
+    private CheckedProgram checked;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        ProgramGenerator generator = new ProgramGenerator();
+        generator.definitions = definitions;
+        generator.letDepth = letDepth;
+        generator.fanOut = fanOut;
+        generator.callDepth = callDepth;
+        file = Files.createTempFile("bench", ".hdml");
+        generator.write(file.toString());
+
+        tokens = Parser.tokenize(file.toString());
+        program = Parser.parse(tokens);
+        checked = Checker.check(program);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public List<Token> tokenize() throws IOException {
+        return Parser.tokenize(file.toString());
+    }
+
+    @Benchmark
+    public Program parse() {
+        return Parser.parse(tokens);
+    }
+
+    @Benchmark
+    public CheckedProgram check() {
+        return Checker.check(program);
+    }
+
+    @Benchmark
+    public void codegen() throws IOException {
+        Codegen.gen(checked, OutputStream.nullOutputStream(), false);
+    }
+
+    @Benchmark
+    public void codegenCompact() throws IOException {
+        Codegen.gen(checked, OutputStream.nullOutputStream(), true);
+    }
+}
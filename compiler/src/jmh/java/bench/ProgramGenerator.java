@@ -0,0 +1,96 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Generates large programs for benchmarking. The same settings always give the same
+ * program. Every definition takes two inputs and only calls nand or definitions
+ * before it, so the output always checks and flattens.
+ */
+public class ProgramGenerator {
+    // Number of definitions, not counting not
+    public int definitions = 100;
+    // Number of lets in each body
+    public int letDepth = 10;
+    // Each let reads from the last fanOut variables, so each is read about this often
+    public int fanOut = 2;
+    // How deeply calls nest in the expression bound by each let
+    public int callDepth = 2;
+    public long seed = 1;
+
+    public String generate() {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder();
+        builder.append("not x = nand ( x x )\n\n");
+        for (int i = 0; i < definitions; i++) {
+            List<String> variables = new ArrayList<>();
+            variables.add("a");
+            variables.add("b");
+            builder.append("d").append(i).append(" a b =\n");
+            for (int k = 0; k < letDepth; k++) {
+                builder.append("    let v").append(k).append(" = ");
+                expression(builder, random, i, variables, callDepth);
+                builder.append(" in\n");
+                variables.add("v" + k);
+            }
+            builder.append("    ");
+            expression(builder, random, i, variables, Math.max(callDepth, 1));
+            builder.append("\n\n");
+        }
+        return builder.toString();
+    }
+
+    public void write(String file) throws IOException {
+        Files.write(Path.of(file), generate().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void expression(StringBuilder builder, Random random, int definition, List<String> variables, int depth) {
+        if (depth == 0) {
+            builder.append(variable(random, variables));
+            return;
+        }
+        // nand, not, or one of the last few definitions
+        int choice = random.nextInt(Math.min(definition, 8) + 2);
+        if (choice == 0) {
+            builder.append("not ( ");
+            expression(builder, random, definition, variables, depth - 1);
+            builder.append(" )");
+            return;
+        }
+        builder.append(choice == 1 ? "nand" : "d" + (definition - choice + 1)).append(" ( ");
+        expression(builder, random, definition, variables, depth - 1);
+        builder.append(' ').append(variable(random, variables)).append(" )");
+    }
+
+    private String variable(Random random, List<String> variables) {
+        int window = Math.min(Math.max(fanOut, 1), variables.size());
+        return variables.get(variables.size() - 1 - random.nextInt(window));
+    }
+
+    /**
+     * Writes a program to a file: FILE [DEFINITIONS [LET_DEPTH [FAN_OUT [CALL_DEPTH]]]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new RuntimeException("Usage: ProgramGenerator FILE [DEFINITIONS [LET_DEPTH [FAN_OUT [CALL_DEPTH]]]]");
+        }
+        ProgramGenerator generator = new ProgramGenerator();
+        if (args.length > 1) {
+            generator.definitions = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            generator.letDepth = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            generator.fanOut = Integer.parseInt(args[3]);
+        }
+        if (args.length > 4) {
+            generator.callDepth = Integer.parseInt(args[4]);
+        }
+        generator.write(args[0]);
+    }
+}
@@ -0,0 +1,463 @@
+package aiger;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import flatten.Netlist;
+import parser.Program;
+import parser.Program.*;
+
+/**
+ * Reads and writes combinational and-inverter graphs in the AIGER format, both
+ * ASCII (aag) and binary (aig). A literal is twice a variable, plus one if it's
+ * negated, and variable 0 is the constant false.
+ *
+ * Each output of a graph becomes its own definition over all of the graph's
+ * inputs, holding only the gates that output depends on. An and node becomes a
+ * nand followed by a nand as not, and the second gate is only added when the
+ * positive literal is actually used.
+ */
+public class Aiger {
+    public int maxVar;
+    public List<String> inputs;
+    // Variable of each input, which is i + 1 for binary files
+    public int[] inputVars;
+    public List<String> outputNames;
+    public int[] outputs;
+    // And node k defines literal lhs[k], which is 2 * (inputs.size() + 1 + k) for binary files
+    public int[] lhs;
+    public int[] rhs0;
+    public int[] rhs1;
+
+    public static boolean isAiger(String filename) {
+        return filename.endsWith(".aag") || filename.endsWith(".aig");
+    }
+
+    public static Aiger read(String filename) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(filename))) {
+            return read(in);
+        }
+    }
+
+    public static Aiger read(InputStream in) throws IOException {
+        String[] header = line(in).split(" ");
+        if (header.length < 6 || !(header[0].equals("aag") || header[0].equals("aig"))) {
+            throw new RuntimeException("Not an AIGER file, header is " + String.join(" ", header));
+        }
+        boolean binary = header[0].equals("aig");
+        int[] counts = new int[header.length - 1];
+        for (int i = 1; i < header.length; i++) {
+            counts[i - 1] = Integer.parseInt(header[i]);
+        }
+        if (counts[2] != 0) {
+            throw new RuntimeException("AIGER latches aren't supported, only combinational circuits");
+        }
+        for (int i = 5; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                throw new RuntimeException("AIGER bad state, constraint, justice and fairness sections aren't supported");
+            }
+        }
+
+        Aiger aiger = new Aiger();
+        aiger.maxVar = counts[0];
+        int inputCount = counts[1];
+        aiger.inputVars = new int[inputCount];
+        for (int i = 0; i < inputCount; i++) {
+            aiger.inputVars[i] = binary ? i + 1 : literal(line(in)) / 2;
+        }
+        aiger.outputs = new int[counts[3]];
+        for (int i = 0; i < aiger.outputs.length; i++) {
+            aiger.outputs[i] = literal(line(in));
+        }
+        int ands = counts[4];
+        aiger.lhs = new int[ands];
+        aiger.rhs0 = new int[ands];
+        aiger.rhs1 = new int[ands];
+        for (int k = 0; k < ands; k++) {
+            if (binary) {
+                int lhs = 2 * (inputCount + 1 + k);
+                aiger.lhs[k] = lhs;
+                aiger.rhs0[k] = lhs - varint(in);
+                aiger.rhs1[k] = aiger.rhs0[k] - varint(in);
+            } else {
+                String[] fields = line(in).split(" ");
+                aiger.lhs[k] = literal(fields[0]);
+                aiger.rhs0[k] = literal(fields[1]);
+                aiger.rhs1[k] = literal(fields[2]);
+            }
+        }
+
+        // Symbols, up to the comment section
+        String[] inputNames = new String[inputCount];
+        String[] outputNames = new String[aiger.outputs.length];
+        String line;
+        while ((line = line(in)) != null && !line.equals("c")) {
+            int space = line.indexOf(' ');
+            if (space < 2) {
+                continue;
+            }
+            int position = Integer.parseInt(line.substring(1, space));
+            String name = line.substring(space + 1);
+            if (line.charAt(0) == 'i' && position < inputCount) {
+                inputNames[position] = name;
+            } else if (line.charAt(0) == 'o' && position < outputNames.length) {
+                outputNames[position] = name;
+            }
+        }
+
+        HashSet<String> taken = new HashSet<>();
+        aiger.inputs = new ArrayList<>();
+        for (int i = 0; i < inputCount; i++) {
+            aiger.inputs.add(unique(sanitise(inputNames[i], "i" + i), taken));
+        }
+        aiger.outputNames = new ArrayList<>();
+        for (int i = 0; i < outputNames.length; i++) {
+            aiger.outputNames.add(unique(sanitise(outputNames[i], "o" + i), taken));
+        }
+        return aiger;
+    }
+
+    private static String sanitise(String name, String fallback) {
+        if (name == null || name.isEmpty()) {
+            return fallback;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            builder.append(Character.isLetterOrDigit(c) || c == '_' ? c : '_');
+        }
+        if (!Character.isLetter(builder.charAt(0))) {
+            builder.insert(0, fallback.charAt(0));
+        }
+        return builder.toString();
+    }
+
+    private static String unique(String name, HashSet<String> taken) {
+        // Gates are named n<var>, and nand is the builtin
+        while (taken.contains(name) || name.equals("nand") || name.matches("n[0-9]+")) {
+            name = name + "_";
+        }
+        taken.add(name);
+        return name;
+    }
+
+    private static int literal(String s) {
+        return Integer.parseInt(s.trim().split(" ")[0]);
+    }
+
+    /**
+     * Reads a line without buffering past it, as binary data can follow. Returns
+     * null at the end of the file.
+     */
+    private static String line(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return builder.length() == 0 ? null : builder.toString();
+            }
+            builder.append((char) c);
+        }
+        return builder.toString();
+    }
+
+    private static int varint(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new RuntimeException("AIGER file ends in the middle of an and gate");
+            }
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * One netlist per output, holding only the gates that output depends on.
+     */
+    public List<Netlist> toNetlists() {
+        // And node defining each variable, or -1
+        int[] node = new int[maxVar + 1];
+        Arrays.fill(node, -1);
+        // Input of each variable, or -1
+        int[] input = new int[maxVar + 1];
+        Arrays.fill(input, -1);
+        for (int i = 0; i < inputVars.length; i++) {
+            if (inputVars[i] <= 0 || inputVars[i] > maxVar || input[inputVars[i]] >= 0) {
+                throw new RuntimeException("Input " + i + " has invalid variable " + inputVars[i]);
+            }
+            input[inputVars[i]] = i;
+        }
+        for (int k = 0; k < lhs.length; k++) {
+            int var = lhs[k] / 2;
+            if ((lhs[k] & 1) != 0 || var == 0 || var > maxVar || input[var] >= 0 || node[var] >= 0) {
+                throw new RuntimeException("And gate " + k + " can't define literal " + lhs[k]);
+            }
+            node[var] = k;
+        }
+
+        // Net of each literal in the netlist being built, and the output it was last
+        // expanded for, so neither needs clearing between outputs
+        int[] nets = new int[2 * (maxVar + 1)];
+        int[] built = new int[2 * (maxVar + 1)];
+        int[] expanded = new int[2 * (maxVar + 1)];
+        List<Netlist> netlists = new ArrayList<>();
+        for (int o = 0; o < outputs.length; o++) {
+            Netlist netlist = new Netlist(outputNames.get(o), inputs);
+            Cone cone = new Cone(netlist, node, input, nets, built, expanded, o + 1);
+            netlist.output = cone.net(outputs[o]);
+            netlists.add(netlist);
+        }
+        return netlists;
+    }
+
+    /**
+     * Builds the cone of one output into a netlist.
+     */
+    private class Cone {
+        private Netlist netlist;
+        private int[] node;
+        private int[] input;
+        private int[] nets;
+        private int[] built;
+        private int[] expanded;
+        private int stamp;
+
+        public Cone(Netlist netlist, int[] node, int[] input, int[] nets, int[] built, int[] expanded, int stamp) {
+            this.netlist = netlist;
+            this.node = node;
+            this.input = input;
+            this.nets = nets;
+            this.built = built;
+            this.expanded = expanded;
+            this.stamp = stamp;
+        }
+
+        private boolean ready(int literal) {
+            int var = literal / 2;
+            return var == 0 || ((literal & 1) == 0 && input[var] >= 0) || built[literal] == stamp;
+        }
+
+        private int get(int literal) {
+            int var = literal / 2;
+            if (var == 0) {
+                return literal == 0 ? Netlist.FALSE : Netlist.TRUE;
+            } else if ((literal & 1) == 0 && input[var] >= 0) {
+                return netlist.input(input[var]);
+            }
+            return nets[literal];
+        }
+
+        private void set(int literal, int net) {
+            nets[literal] = net;
+            built[literal] = stamp;
+        }
+
+        /**
+         * The net carrying a literal. The negated literal of an and node is the nand
+         * itself, and a positive literal is a not of the negated one.
+         */
+        public int net(int literal) {
+            if (literal / 2 > maxVar) {
+                throw new RuntimeException("Literal " + literal + " is past the maximum variable " + maxVar);
+            }
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(literal);
+            while (!stack.isEmpty()) {
+                int l = stack.peek();
+                if (ready(l)) {
+                    stack.pop();
+                    continue;
+                }
+                int var = l / 2;
+                if ((l & 1) == 0) {
+                    if (ready(l | 1)) {
+                        set(l, netlist.addGate(get(l | 1), get(l | 1)));
+                        stack.pop();
+                    } else {
+                        stack.push(l | 1);
+                    }
+                    continue;
+                }
+                if (input[var] >= 0) {
+                    set(l, netlist.addGate(get(l - 1), get(l - 1)));
+                    stack.pop();
+                    continue;
+                }
+                int k = node[var];
+                if (k < 0) {
+                    throw new RuntimeException("Variable " + var + " is never defined");
+                }
+                if (ready(rhs0[k]) && ready(rhs1[k])) {
+                    set(l, netlist.addGate(get(rhs0[k]), get(rhs1[k])));
+                    stack.pop();
+                } else if (expanded[l] == stamp) {
+                    // Back on top with its inputs still missing, so they depend on it
+                    throw new RuntimeException("And gates form a loop through variable " + var);
+                } else {
+                    expanded[l] = stamp;
+                    for (int child : new int[]{rhs0[k], rhs1[k]}) {
+                        if (!ready(child)) {
+                            stack.push(child);
+                        }
+                    }
+                }
+            }
+            return get(literal);
+        }
+    }
+
+    /**
+     * One definition per output, each gate bound by a let in gate order.
+     */
+    public Program toProgram() {
+        List<Definition> definitions = new ArrayList<>();
+        for (Netlist netlist : toNetlists()) {
+            definitions.add(toDefinition(netlist));
+        }
+        return new Program(definitions);
+    }
+
+    public static Definition toDefinition(Netlist netlist) {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String input : netlist.inputs) {
+            patterns.add(new PatternIdentifier(new Identifier(input)));
+        }
+        Expression body = reference(netlist, netlist.output);
+        // Innermost first, as a let takes its type from its body
+        for (int g = netlist.gateCount - 1; g >= 0; g--) {
+            List<Expression> args = new ArrayList<>(2);
+            args.add(reference(netlist, netlist.left[g]));
+            args.add(reference(netlist, netlist.right[g]));
+            Expression gate = new ExpressionFunction(new Identifier("nand"), args);
+            body = new ExpressionLet(new Assignment(new Identifier(gateName(netlist, netlist.firstGate() + g)), gate), body);
+        }
+        return new Definition(new Identifier(netlist.name), patterns, body);
+    }
+
+    private static Expression reference(Netlist netlist, int net) {
+        if (net == Netlist.FALSE || net == Netlist.TRUE) {
+            return new ExpressionLiteral(net);
+        } else if (net < netlist.firstGate()) {
+            return new ExpressionIdentifier(new Identifier(netlist.inputs.get(net - netlist.input(0))));
+        }
+        return new ExpressionIdentifier(new Identifier(gateName(netlist, net)));
+    }
+
+    private static String gateName(Netlist netlist, int net) {
+        return "n" + (net - netlist.firstGate());
+    }
+
+    /**
+     * Writes netlists over the same inputs as one graph with an output each. A nand
+     * becomes an and node with its output negated, except a nand of a net with
+     * itself or a constant, which is only a negation. Identical and nodes are
+     * shared, within a netlist and across them.
+     */
+    public static void write(List<Netlist> netlists, OutputStream out, boolean binary) throws IOException {
+        if (netlists.isEmpty()) {
+            throw new RuntimeException("Nothing to write as AIGER");
+        }
+        List<String> inputs = netlists.get(0).inputs;
+        int inputCount = inputs.size();
+        int[] outputs = new int[netlists.size()];
+        int ands = 0;
+        int[] andRhs0 = new int[16];
+        int[] andRhs1 = new int[16];
+        HashMap<Long, Integer> unique = new HashMap<>();
+        for (int n = 0; n < netlists.size(); n++) {
+            Netlist netlist = netlists.get(n);
+            if (!netlist.inputs.equals(inputs)) {
+                throw new RuntimeException("Can't write " + netlist.name + " as AIGER with " + netlists.get(0).name + ", their inputs differ");
+            }
+            int[] literals = new int[netlist.netCount()];
+            literals[Netlist.TRUE] = 1;
+            for (int i = 0; i < inputCount; i++) {
+                literals[netlist.input(i)] = 2 * (i + 1);
+            }
+            for (int g = 0; g < netlist.gateCount; g++) {
+                int a = literals[netlist.left[g]];
+                int b = literals[netlist.right[g]];
+                int literal;
+                if (a == 0 || b == 0 || a == (b ^ 1)) {
+                    literal = 1;
+                } else if (a == b || b == 1) {
+                    literal = a ^ 1;
+                } else if (a == 1) {
+                    literal = b ^ 1;
+                } else {
+                    int high = Math.max(a, b);
+                    int low = Math.min(a, b);
+                    Integer var = unique.get(((long) high << 32) | low);
+                    if (var == null) {
+                        if (ands == andRhs0.length) {
+                            andRhs0 = Arrays.copyOf(andRhs0, 2 * ands);
+                            andRhs1 = Arrays.copyOf(andRhs1, 2 * ands);
+                        }
+                        andRhs0[ands] = high;
+                        andRhs1[ands] = low;
+                        var = inputCount + 1 + ands++;
+                        unique.put(((long) high << 32) | low, var);
+                    }
+                    literal = 2 * var + 1;
+                }
+                literals[netlist.firstGate() + g] = literal;
+            }
+            outputs[n] = literals[netlist.output];
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append(binary ? "aig " : "aag ").append(inputCount + ands).append(' ').append(inputCount)
+            .append(" 0 ").append(outputs.length).append(' ').append(ands).append('\n');
+        if (!binary) {
+            for (int i = 0; i < inputCount; i++) {
+                text.append(2 * (i + 1)).append('\n');
+            }
+        }
+        for (int output : outputs) {
+            text.append(output).append('\n');
+        }
+        if (!binary) {
+            for (int k = 0; k < ands; k++) {
+                text.append(2 * (inputCount + 1 + k)).append(' ').append(andRhs0[k]).append(' ').append(andRhs1[k]).append('\n');
+            }
+        }
+        out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+        if (binary) {
+            byte[] buffer = new byte[10];
+            for (int k = 0; k < ands; k++) {
+                int lhs = 2 * (inputCount + 1 + k);
+                out.write(buffer, 0, varint(buffer, lhs - andRhs0[k]));
+                out.write(buffer, 0, varint(buffer, andRhs0[k] - andRhs1[k]));
+            }
+        }
+
+        text.setLength(0);
+        for (int i = 0; i < inputCount; i++) {
+            text.append('i').append(i).append(' ').append(inputs.get(i)).append('\n');
+        }
+        for (int n = 0; n < netlists.size(); n++) {
+            text.append('o').append(n).append(' ').append(netlists.get(n).name).append('\n');
+        }
+        out.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static int varint(byte[] buffer, int value) {
+        int length = 0;
+        while ((value & ~0x7f) != 0) {
+            buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+        return length;
+    }
+}
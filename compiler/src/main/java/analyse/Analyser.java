@@ -0,0 +1,241 @@
+package analyse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+import checker.Checker.*;
+import codegen.JsonWriter;
+import flatten.Flattener;
+import parser.Program.*;
+
+/**
+ * Measures logic depth and size of each definition on the checked graph, without
+ * flattening it. A definition can only call definitions before it, so analysing
+ * them in order means every callee's profile is ready when it's needed, and each
+ * call costs as much as the callee's inputs rather than its size.
+ */
+public class Analyser {
+
+    public static class Profile {
+        public String name;
+        public List<String> inputs;
+        // Longest nand path from each input to the output, -1 if the output doesn't depend on it
+        public int[] depth;
+        // Longest of those paths, -1 if the output depends on no input
+        public int criticalPath;
+        // Most sinks of any one node in the definition itself
+        public int maxFanOut;
+        // Nand gates the output depends on once flattened
+        public long gates;
+        // The output depends on a loop, so depths are unknown and left at -1
+        public boolean feedback;
+    }
+
+    public static List<Profile> analyse(CheckedProgram p) {
+        HashMap<String, Profile> profiles = new HashMap<>();
+        List<Profile> result = new ArrayList<>();
+        for (CheckedDefinition d : p.definitions) {
+            Profile profile = analyse(d, profiles);
+            profiles.put(profile.name, profile);
+            result.add(profile);
+        }
+        return result;
+    }
+
+    private static Profile analyse(CheckedDefinition d, HashMap<String, Profile> profiles) {
+        Profile profile = new Profile();
+        profile.name = d.ident.name;
+        profile.inputs = new ArrayList<>();
+        for (Pattern p : d.patterns) {
+            profile.inputs.add(((PatternIdentifier) p).ident.name);
+        }
+        int k = profile.inputs.size();
+
+        // sink -> sink input -> source
+        HashMap<String, Symbol> nodes = new HashMap<>();
+        HashMap<String, HashMap<String, String>> drivers = new HashMap<>();
+        String output = null;
+        for (Symbol s : d.symbols.values()) {
+            if (s.type == SymbolType.DEFINITION) {
+                continue;
+            }
+            nodes.put(s.ident.name, s);
+            if (s.type == SymbolType.OUTPUT) {
+                output = s.ident.name;
+            }
+            profile.maxFanOut = Math.max(profile.maxFanOut, s.references.size());
+            for (int i = 0; i < s.references.size(); i++) {
+                drivers.computeIfAbsent(s.references.get(i), key -> new HashMap<>()).put(s.referencesInputs.get(i), s.ident.name);
+            }
+        }
+
+        // Depth first from the output, so only nodes it depends on are counted, and
+        // each node comes after the nodes driving it
+        List<String> order = new ArrayList<>();
+        HashMap<String, Boolean> done = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(output);
+        while (!stack.isEmpty()) {
+            String n = stack.peek();
+            Boolean state = done.get(n);
+            if (state == null) {
+                done.put(n, false);
+                for (String source : drivers.getOrDefault(n, new HashMap<>()).values()) {
+                    if (!nodes.containsKey(source)) {
+                        throw new RuntimeException("Unknown node " + source + " in " + profile.name);
+                    }
+                    Boolean sourceState = done.get(source);
+                    if (sourceState == null) {
+                        stack.push(source);
+                    } else if (!sourceState) {
+                        profile.feedback = true;
+                    }
+                }
+            } else {
+                stack.pop();
+                if (!state) {
+                    done.put(n, true);
+                    order.add(n);
+                }
+            }
+        }
+
+        HashMap<String, int[]> arrivals = new HashMap<>();
+        for (String n : order) {
+            Symbol s = nodes.get(n);
+            HashMap<String, String> inputs = drivers.getOrDefault(n, new HashMap<>());
+            int[] arrival = new int[k];
+            Arrays.fill(arrival, -1);
+            if (s.type == SymbolType.INPUT) {
+                int i = profile.inputs.indexOf(n);
+                if (i >= 0) {
+                    arrival[i] = 0;
+                }
+            } else if (s.type == SymbolType.OUTPUT) {
+                if (inputs.isEmpty()) {
+                    throw new RuntimeException("Nothing drives " + n);
+                }
+                arrival = arrival(arrivals, inputs.values().iterator().next(), k);
+            } else {
+                String function = callee(s);
+                if (function.equals(Flattener.NAND)) {
+                    profile.gates++;
+                    latest(arrival, arrival(arrivals, inputs.get("x"), k), 1);
+                    latest(arrival, arrival(arrivals, inputs.get("y"), k), 1);
+                } else {
+                    Profile callee = profiles.get(function);
+                    if (callee == null) {
+                        throw new RuntimeException("Can't analyse " + n + ", " + function + " is not a definition");
+                    }
+                    profile.gates += callee.gates;
+                    profile.feedback |= callee.feedback;
+                    for (int j = 0; j < callee.inputs.size(); j++) {
+                        if (callee.depth[j] >= 0) {
+                            latest(arrival, arrival(arrivals, inputs.get(callee.inputs.get(j)), k), callee.depth[j]);
+                        }
+                    }
+                }
+            }
+            arrivals.put(n, arrival);
+        }
+
+        profile.depth = new int[k];
+        Arrays.fill(profile.depth, -1);
+        profile.criticalPath = -1;
+        if (!profile.feedback) {
+            profile.depth = arrivals.get(output);
+            for (int i = 0; i < k; i++) {
+                profile.criticalPath = Math.max(profile.criticalPath, profile.depth[i]);
+            }
+        }
+        return profile;
+    }
+
+    private static String callee(Symbol s) {
+        if (s.type == SymbolType.CALL) {
+            return ((SymbolCall) s).functionType;
+        } else if (s.type == SymbolType.VARIABLE) {
+            return ((SymbolVariable) s).value.type;
+        }
+        throw new RuntimeException("Found node of type " + s.type);
+    }
+
+    /**
+     * Arrival times at a node, or none for unconnected inputs and nodes on a loop.
+     */
+    private static int[] arrival(HashMap<String, int[]> arrivals, String source, int k) {
+        int[] arrival = source == null ? null : arrivals.get(source);
+        if (arrival == null) {
+            arrival = new int[k];
+            Arrays.fill(arrival, -1);
+        }
+        return arrival;
+    }
+
+    /**
+     * Raises each arrival time to that of the source plus the delay in between.
+     */
+    private static void latest(int[] arrival, int[] source, int delay) {
+        for (int i = 0; i < arrival.length; i++) {
+            if (source[i] >= 0) {
+                arrival[i] = Math.max(arrival[i], source[i] + delay);
+            }
+        }
+    }
+
+    /**
+     * Writes the profiles as one JSON object keyed by definition name. Unknown
+     * depths are written as null.
+     */
+    public static void write(List<Profile> profiles, OutputStream out, boolean compact) throws IOException {
+        JsonWriter writer = new JsonWriter(out, compact);
+        writer.raw('{');
+        writer.newLine();
+        for (int p = 0; p < profiles.size(); p++) {
+            Profile profile = profiles.get(p);
+            writer.indent(1);
+            writer.key(profile.name);
+            writer.raw('{');
+            writer.newLine();
+
+            writer.indent(2);
+            writer.key("depth");
+            writer.raw('{');
+            for (int i = 0; i < profile.inputs.size(); i++) {
+                if (i > 0) {
+                    writer.comma();
+                }
+                writer.key(profile.inputs.get(i));
+                writer.raw(depth(profile, profile.depth[i]));
+            }
+            writer.raw("},");
+            writer.newLine();
+            field(writer, "critical_path", depth(profile, profile.criticalPath), false);
+            field(writer, "max_fan_out", Integer.toString(profile.maxFanOut), false);
+            field(writer, "gates", Long.toString(profile.gates), false);
+            field(writer, "feedback", Boolean.toString(profile.feedback), true);
+
+            writer.indent(1);
+            writer.raw(p == profiles.size() - 1 ? "}" : "},");
+            writer.newLine();
+        }
+        writer.raw('}');
+        writer.raw('\n');
+        writer.flush();
+    }
+
+    private static String depth(Profile profile, int depth) {
+        return profile.feedback ? "null" : Integer.toString(depth);
+    }
+
+    private static void field(JsonWriter writer, String key, String value, boolean last) throws IOException {
+        writer.indent(2);
+        writer.key(key);
+        writer.raw(value);
+        if (!last) {
+            writer.raw(',');
+        }
+        writer.newLine();
+    }
+}
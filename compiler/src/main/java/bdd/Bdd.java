@@ -0,0 +1,441 @@
+package bdd;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Reduced ordered binary decision diagrams. Nodes are ints into parallel arrays and
+ * are unique, so two functions are equal exactly when their nodes are. Variable i
+ * is tested at level i.
+ *
+ * Results of operations are cached in a fixed size table where a new entry simply
+ * replaces whatever was in its slot. Nodes are reclaimed by {@link #gc}, which
+ * keeps every node reachable from one that has been {@link #ref}'d, so callers
+ * must ref anything they hold on to across operations. Collection only happens at
+ * the start of a public operation, never in the middle of one.
+ */
+public class Bdd {
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    private static final int TERMINAL = Integer.MAX_VALUE;
+    private static final int FREE = -1;
+
+    private static final int OP_AND = 0;
+    private static final int OP_XOR = 1;
+    private static final int OP_ITE = 2;
+
+    private int[] var;
+    private int[] low;
+    private int[] high;
+    // Unique table chains, and the free list once a node is reclaimed
+    private int[] next;
+    private int[] refs;
+    private int[] buckets;
+    private int capacity;
+    private int used;
+    private int free;
+    private int live;
+    private int variables;
+    // Collect once this many nodes are in use
+    private int threshold;
+
+    private int[] cacheOp;
+    private int[] cacheA;
+    private int[] cacheB;
+    private int[] cacheC;
+    private int[] cacheResult;
+
+    // Operands of the operation in progress, kept alive if it collects
+    private int[] operands;
+
+    public Bdd() {
+        this(1 << 12, 1 << 14);
+    }
+
+    public Bdd(int nodes, int cacheSize) {
+        this.capacity = Math.max(nodes, 4);
+        this.var = new int[capacity];
+        this.low = new int[capacity];
+        this.high = new int[capacity];
+        this.next = new int[capacity];
+        this.refs = new int[capacity];
+        this.buckets = new int[Integer.highestOneBit(capacity - 1) << 1];
+        Arrays.fill(buckets, FREE);
+        this.free = FREE;
+        this.variables = 0;
+        this.threshold = capacity;
+
+        int size = Integer.highestOneBit(Math.max(cacheSize, 16) - 1) << 1;
+        this.cacheOp = new int[size];
+        this.cacheA = new int[size];
+        this.cacheB = new int[size];
+        this.cacheC = new int[size];
+        this.cacheResult = new int[size];
+        Arrays.fill(cacheOp, FREE);
+        this.operands = new int[0];
+
+        for (int terminal = FALSE; terminal <= TRUE; terminal++) {
+            var[terminal] = TERMINAL;
+            low[terminal] = terminal;
+            high[terminal] = terminal;
+            refs[terminal] = 1;
+        }
+        this.used = 2;
+        this.live = 2;
+    }
+
+    public int variableCount() {
+        return variables;
+    }
+
+    /**
+     * The number of nodes in use, including the two terminals.
+     */
+    public int nodeCount() {
+        return live;
+    }
+
+    public int var(int f) {
+        return var[f];
+    }
+
+    public int low(int f) {
+        return low[f];
+    }
+
+    public int high(int f) {
+        return high[f];
+    }
+
+    /**
+     * Keeps a node, and everything below it, alive through collections.
+     */
+    public int ref(int f) {
+        refs[f]++;
+        return f;
+    }
+
+    public void deref(int f) {
+        if (refs[f] <= 0) {
+            throw new RuntimeException("Node " + f + " isn't referenced");
+        }
+        refs[f]--;
+    }
+
+    public int variable(int i) {
+        variables = Math.max(variables, i + 1);
+        return make(i, FALSE, TRUE);
+    }
+
+    public int not(int f) {
+        start(f);
+        return apply(OP_XOR, f, TRUE);
+    }
+
+    public int and(int a, int b) {
+        start(a, b);
+        return apply(OP_AND, a, b);
+    }
+
+    public int or(int a, int b) {
+        start(a, b);
+        return apply(OP_XOR, apply(OP_AND, apply(OP_XOR, a, TRUE), apply(OP_XOR, b, TRUE)), TRUE);
+    }
+
+    public int nand(int a, int b) {
+        start(a, b);
+        return apply(OP_XOR, apply(OP_AND, a, b), TRUE);
+    }
+
+    public int xor(int a, int b) {
+        start(a, b);
+        return apply(OP_XOR, a, b);
+    }
+
+    /**
+     * If f then g else h.
+     */
+    public int ite(int f, int g, int h) {
+        start(f, g, h);
+        return ite0(f, g, h);
+    }
+
+    /**
+     * Replaces every variable i at once with the function map[i]. Variables past the
+     * end of the map are left alone.
+     */
+    public int compose(int f, int[] map) {
+        int[] fs = Arrays.copyOf(map, map.length + 1);
+        fs[map.length] = f;
+        start(fs);
+        return compose(f, map, new HashMap<>());
+    }
+
+    private int compose(int f, int[] map, HashMap<Integer, Integer> memo) {
+        if (f <= TRUE) {
+            return f;
+        }
+        Integer cached = memo.get(f);
+        if (cached != null) {
+            return cached;
+        }
+        int l = compose(low[f], map, memo);
+        int h = compose(high[f], map, memo);
+        int v = var[f] < map.length ? map[var[f]] : make(var[f], FALSE, TRUE);
+        int result = ite0(v, h, l);
+        memo.put(f, result);
+        return result;
+    }
+
+    /**
+     * The number of assignments to the first variableCount() variables that make f
+     * true.
+     */
+    public BigInteger satCount(int f) {
+        return satCount(f, variables);
+    }
+
+    public BigInteger satCount(int f, int variables) {
+        HashMap<Integer, BigInteger> memo = new HashMap<>();
+        return satCount(f, memo, variables).shiftLeft(level(f, variables));
+    }
+
+    // Satisfying assignments of the variables from f's own level down
+    private BigInteger satCount(int f, HashMap<Integer, BigInteger> memo, int variables) {
+        if (f == FALSE) {
+            return BigInteger.ZERO;
+        } else if (f == TRUE) {
+            return BigInteger.ONE;
+        }
+        BigInteger cached = memo.get(f);
+        if (cached != null) {
+            return cached;
+        }
+        int level = var[f];
+        BigInteger l = satCount(low[f], memo, variables).shiftLeft(level(low[f], variables) - level - 1);
+        BigInteger h = satCount(high[f], memo, variables).shiftLeft(level(high[f], variables) - level - 1);
+        BigInteger result = l.add(h);
+        memo.put(f, result);
+        return result;
+    }
+
+    private int level(int f, int variables) {
+        return var[f] == TERMINAL ? variables : var[f];
+    }
+
+    /**
+     * One assignment that makes f true, or null if there isn't one. Variables f
+     * doesn't depend on are false.
+     */
+    public boolean[] satisfying(int f) {
+        if (f == FALSE) {
+            return null;
+        }
+        boolean[] assignment = new boolean[variables];
+        while (f != TRUE) {
+            if (low[f] != FALSE) {
+                f = low[f];
+            } else {
+                assignment[var[f]] = true;
+                f = high[f];
+            }
+        }
+        return assignment;
+    }
+
+    /**
+     * Reclaims every node that can't be reached from a referenced one, and empties
+     * the operation cache.
+     */
+    public void gc() {
+        boolean[] marked = new boolean[used];
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int n = 0; n < used; n++) {
+            if (refs[n] > 0 && var[n] != FREE) {
+                stack.push(n);
+            }
+        }
+        for (int n : operands) {
+            stack.push(n);
+        }
+        while (!stack.isEmpty()) {
+            int n = stack.pop();
+            if (!marked[n]) {
+                marked[n] = true;
+                if (n > TRUE) {
+                    stack.push(low[n]);
+                    stack.push(high[n]);
+                }
+            }
+        }
+
+        Arrays.fill(buckets, FREE);
+        free = FREE;
+        live = 2;
+        for (int n = used - 1; n > TRUE; n--) {
+            if (marked[n]) {
+                int bucket = hash(var[n], low[n], high[n]) & (buckets.length - 1);
+                next[n] = buckets[bucket];
+                buckets[bucket] = n;
+                live++;
+            } else {
+                var[n] = FREE;
+                refs[n] = 0;
+                next[n] = free;
+                free = n;
+            }
+        }
+        Arrays.fill(cacheOp, FREE);
+    }
+
+    /**
+     * Collects before an operation if the table is getting full. The operands are
+     * kept alive even if they haven't been referenced.
+     */
+    private void start(int... fs) {
+        if (live < threshold) {
+            return;
+        }
+        int[] saved = operands;
+        operands = fs;
+        try {
+            gc();
+        } finally {
+            operands = saved;
+        }
+        // If most nodes are still alive, let the table grow before trying again
+        threshold = Math.max(threshold, live * 2);
+    }
+
+    private int apply(int op, int a, int b) {
+        if (op == OP_AND) {
+            if (a == FALSE || b == FALSE) {
+                return FALSE;
+            } else if (a == TRUE) {
+                return b;
+            } else if (b == TRUE || a == b) {
+                return a;
+            }
+        } else {
+            if (a == b) {
+                return FALSE;
+            } else if (a == FALSE) {
+                return b;
+            } else if (b == FALSE) {
+                return a;
+            }
+        }
+        // Both operations commute
+        if (a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        int slot = cacheSlot(op, a, b, 0);
+        if (cacheOp[slot] == op && cacheA[slot] == a && cacheB[slot] == b) {
+            return cacheResult[slot];
+        }
+
+        int v = Math.min(var[a], var[b]);
+        int l = apply(op, var[a] == v ? low[a] : a, var[b] == v ? low[b] : b);
+        int h = apply(op, var[a] == v ? high[a] : a, var[b] == v ? high[b] : b);
+        int result = make(v, l, h);
+        store(slot, op, a, b, 0, result);
+        return result;
+    }
+
+    private int ite0(int f, int g, int h) {
+        if (f == TRUE) {
+            return g;
+        } else if (f == FALSE) {
+            return h;
+        } else if (g == h) {
+            return g;
+        } else if (g == TRUE && h == FALSE) {
+            return f;
+        }
+        int slot = cacheSlot(OP_ITE, f, g, h);
+        if (cacheOp[slot] == OP_ITE && cacheA[slot] == f && cacheB[slot] == g && cacheC[slot] == h) {
+            return cacheResult[slot];
+        }
+
+        int v = Math.min(var[f], Math.min(var[g], var[h]));
+        int l = ite0(var[f] == v ? low[f] : f, var[g] == v ? low[g] : g, var[h] == v ? low[h] : h);
+        int hi = ite0(var[f] == v ? high[f] : f, var[g] == v ? high[g] : g, var[h] == v ? high[h] : h);
+        int result = make(v, l, hi);
+        store(slot, OP_ITE, f, g, h, result);
+        return result;
+    }
+
+    private int cacheSlot(int op, int a, int b, int c) {
+        return hash(op * 31 + a, b, c) & (cacheOp.length - 1);
+    }
+
+    private void store(int slot, int op, int a, int b, int c, int result) {
+        cacheOp[slot] = op;
+        cacheA[slot] = a;
+        cacheB[slot] = b;
+        cacheC[slot] = c;
+        cacheResult[slot] = result;
+    }
+
+    /**
+     * Returns the unique node testing v, creating it if needed.
+     */
+    private int make(int v, int l, int h) {
+        if (l == h) {
+            return l;
+        }
+        int bucket = hash(v, l, h) & (buckets.length - 1);
+        for (int n = buckets[bucket]; n != FREE; n = next[n]) {
+            if (var[n] == v && low[n] == l && high[n] == h) {
+                return n;
+            }
+        }
+
+        int n;
+        if (free != FREE) {
+            n = free;
+            free = next[n];
+        } else {
+            if (used == capacity) {
+                grow();
+                bucket = hash(v, l, h) & (buckets.length - 1);
+            }
+            n = used++;
+        }
+        var[n] = v;
+        low[n] = l;
+        high[n] = h;
+        refs[n] = 0;
+        next[n] = buckets[bucket];
+        buckets[bucket] = n;
+        live++;
+        return n;
+    }
+
+    private void grow() {
+        capacity *= 2;
+        var = Arrays.copyOf(var, capacity);
+        low = Arrays.copyOf(low, capacity);
+        high = Arrays.copyOf(high, capacity);
+        next = Arrays.copyOf(next, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+        buckets = new int[buckets.length * 2];
+        Arrays.fill(buckets, FREE);
+        for (int n = used - 1; n > TRUE; n--) {
+            if (var[n] != FREE) {
+                int bucket = hash(var[n], low[n], high[n]) & (buckets.length - 1);
+                next[n] = buckets[bucket];
+                buckets[bucket] = n;
+            }
+        }
+    }
+
+    private static int hash(int a, int b, int c) {
+        long h = (a * 0x9E3779B97F4A7C15L) ^ (b * 0xC2B2AE3D27D4EB4FL) ^ (c * 0x165667B19E3779F9L);
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,287 @@
+package bdd;
+
+import java.util.*;
+
+import checker.Checker.*;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Program.*;
+
+/**
+ * Builds BDDs of checked definitions, with input i of a definition as variable i.
+ * Each definition is built once over its own inputs, and a call composes the
+ * callee's BDD with its arguments instead of building the callee again, so deep
+ * hierarchies never get flattened. Parameters that were never connected read as 0,
+ * like in the flattener.
+ */
+public class BddBuilder {
+    public Bdd bdd;
+
+    private HashMap<String, CheckedDefinition> definitions;
+    private HashMap<String, Integer> built;
+    private HashSet<String> inProgress;
+
+    public BddBuilder(CheckedProgram p) {
+        this(p, new Bdd());
+    }
+
+    public BddBuilder(CheckedProgram p, Bdd bdd) {
+        this.bdd = bdd;
+        this.definitions = new HashMap<>();
+        for (CheckedDefinition d : p.definitions) {
+            definitions.put(d.ident.name, d);
+        }
+        this.built = new HashMap<>();
+        this.inProgress = new HashSet<>();
+    }
+
+    /**
+     * The BDD of the named definition. It stays referenced for as long as the
+     * builder is in use.
+     */
+    public int build(String name) {
+        Integer cached = built.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        CheckedDefinition d = definitions.get(name);
+        if (d == null) {
+            throw new RuntimeException("No definition named " + name);
+        }
+        if (!inProgress.add(name)) {
+            throw new RuntimeException("Can't build recursive definition " + name);
+        }
+        try {
+            int f = bdd.ref(build(d));
+            built.put(name, f);
+            return f;
+        } finally {
+            inProgress.remove(name);
+        }
+    }
+
+    /**
+     * An assignment to the inputs where the two definitions differ, or null if they
+     * are equivalent. Inputs are matched by position.
+     */
+    public boolean[] difference(String a, String b) {
+        int f = build(a);
+        int g = build(b);
+        int inputs = definitions.get(a).patterns.size();
+        if (definitions.get(b).patterns.size() != inputs) {
+            throw new RuntimeException(a + " and " + b + " have different numbers of inputs");
+        }
+        return difference(bdd, f, g, inputs);
+    }
+
+    /**
+     * The names of a definition's inputs, in variable order.
+     */
+    public List<String> inputs(String name) {
+        CheckedDefinition d = definitions.get(name);
+        if (d == null) {
+            throw new RuntimeException("No definition named " + name);
+        }
+        List<String> inputs = new ArrayList<>();
+        for (Pattern p : d.patterns) {
+            inputs.add(((PatternIdentifier) p).ident.name);
+        }
+        return inputs;
+    }
+
+    private static boolean[] difference(Bdd bdd, int f, int g, int inputs) {
+        if (f == g) {
+            return null;
+        }
+        boolean[] assignment = bdd.satisfying(bdd.xor(f, g));
+        return Arrays.copyOf(assignment, inputs);
+    }
+
+    private int build(CheckedDefinition d) {
+        List<String> params = inputs(d.ident.name);
+
+        // sink -> sink input -> source
+        HashMap<String, Symbol> nodes = new HashMap<>();
+        HashMap<String, HashMap<String, String>> drivers = new HashMap<>();
+        String output = null;
+        for (Symbol s : d.symbols.values()) {
+            if (s.type == SymbolType.DEFINITION) {
+                continue;
+            }
+            nodes.put(s.ident.name, s);
+            if (s.type == SymbolType.OUTPUT) {
+                output = s.ident.name;
+            }
+            for (int i = 0; i < s.references.size(); i++) {
+                drivers.computeIfAbsent(s.references.get(i), k -> new HashMap<>()).put(s.referencesInputs.get(i), s.ident.name);
+            }
+        }
+
+        // Every node's BDD is referenced until the definition is done, as building the
+        // next one may collect
+        HashMap<String, Integer> values = new HashMap<>();
+        HashSet<String> visiting = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(output);
+        try {
+            while (!stack.isEmpty()) {
+                String n = stack.peek();
+                if (values.containsKey(n)) {
+                    stack.pop();
+                    continue;
+                }
+                HashMap<String, String> inputs = drivers.getOrDefault(n, new HashMap<>());
+                boolean ready = true;
+                for (String source : inputs.values()) {
+                    if (!values.containsKey(source)) {
+                        if (visiting.contains(source)) {
+                            throw new RuntimeException("Can't build a BDD for feedback loop through " + source + " in " + d.ident.name);
+                        }
+                        if (!nodes.containsKey(source)) {
+                            throw new RuntimeException("Unknown node " + source + " in " + d.ident.name);
+                        }
+                        ready = false;
+                        stack.push(source);
+                    }
+                }
+                if (ready) {
+                    values.put(n, bdd.ref(node(nodes.get(n), inputs, values, params)));
+                    visiting.remove(n);
+                    stack.pop();
+                } else {
+                    visiting.add(n);
+                }
+            }
+            return values.get(output);
+        } finally {
+            for (int f : values.values()) {
+                bdd.deref(f);
+            }
+        }
+    }
+
+    private int node(Symbol s, HashMap<String, String> inputs, HashMap<String, Integer> values, List<String> params) {
+        String name = s.ident.name;
+        if (s.type == SymbolType.INPUT) {
+            if (name.equals("0")) {
+                return Bdd.FALSE;
+            } else if (name.equals("1")) {
+                return Bdd.TRUE;
+            }
+            return bdd.variable(params.indexOf(name));
+        } else if (s.type == SymbolType.OUTPUT) {
+            if (inputs.isEmpty()) {
+                throw new RuntimeException("Nothing drives " + name);
+            }
+            return values.get(inputs.values().iterator().next());
+        }
+
+        String function;
+        if (s.type == SymbolType.CALL) {
+            function = ((SymbolCall) s).functionType;
+        } else if (s.type == SymbolType.VARIABLE) {
+            function = ((SymbolVariable) s).value.type;
+        } else {
+            throw new RuntimeException("Found node of type " + s.type);
+        }
+
+        if (function.equals(Flattener.NAND)) {
+            return bdd.nand(arg(inputs, "x", values), arg(inputs, "y", values));
+        }
+        CheckedDefinition callee = definitions.get(function);
+        if (callee == null) {
+            throw new RuntimeException("Can't build " + name + ", " + function + " is not a definition");
+        }
+        int f = build(function);
+        int[] args = new int[callee.patterns.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = arg(inputs, ((PatternIdentifier) callee.patterns.get(i)).ident.name, values);
+        }
+        return bdd.compose(f, args);
+    }
+
+    private static int arg(HashMap<String, String> inputs, String param, HashMap<String, Integer> values) {
+        String source = inputs.get(param);
+        return source == null ? Bdd.FALSE : values.get(source);
+    }
+
+    /**
+     * Builds the BDD of a netlist's output gate by gate, with input i as variable i.
+     * The result is referenced, and it's up to the caller to deref it.
+     */
+    public static int build(Bdd bdd, Netlist netlist) {
+        int first = netlist.firstGate();
+        // Drop each net once the last gate reading it is built, or straight away if none do
+        int[] lastUse = new int[netlist.netCount()];
+        Arrays.fill(lastUse, -1);
+        for (int g = 0; g < netlist.gateCount; g++) {
+            lastUse[netlist.left[g]] = g;
+            lastUse[netlist.right[g]] = g;
+        }
+        lastUse[netlist.output] = netlist.gateCount;
+
+        int[] values = new int[netlist.netCount()];
+        values[Netlist.FALSE] = Bdd.FALSE;
+        values[Netlist.TRUE] = Bdd.TRUE;
+        for (int i = 0; i < netlist.inputs.size(); i++) {
+            values[netlist.input(i)] = bdd.ref(bdd.variable(i));
+            drop(bdd, values, lastUse, netlist.input(i), -1);
+        }
+        for (int g = 0; g < netlist.gateCount; g++) {
+            int a = netlist.left[g];
+            int b = netlist.right[g];
+            values[first + g] = bdd.ref(bdd.nand(values[a], values[b]));
+            drop(bdd, values, lastUse, a, g);
+            if (b != a) {
+                drop(bdd, values, lastUse, b, g);
+            }
+            drop(bdd, values, lastUse, first + g, -1);
+        }
+        return values[netlist.output];
+    }
+
+    private static void drop(Bdd bdd, int[] values, int[] lastUse, int net, int gate) {
+        if (net > Netlist.TRUE && lastUse[net] == gate) {
+            bdd.deref(values[net]);
+        }
+    }
+
+    /**
+     * An assignment to the inputs where the two netlists differ, or null if they are
+     * equivalent, such as a netlist before and after optimisation.
+     */
+    public static boolean[] difference(Netlist a, Netlist b) {
+        if (a.inputs.size() != b.inputs.size()) {
+            throw new RuntimeException(a.name + " and " + b.name + " have different numbers of inputs");
+        }
+        Bdd bdd = new Bdd();
+        int f = build(bdd, a);
+        int g = build(bdd, b);
+        return difference(bdd, f, g, a.inputs.size());
+    }
+
+    /**
+     * Throws if an optimised netlist doesn't compute the same function as the
+     * original.
+     */
+    public static void verify(Netlist original, Netlist optimised) {
+        boolean[] difference = difference(original, optimised);
+        if (difference != null) {
+            throw new RuntimeException("Optimised " + original.name + " differs from the original when " + describe(original.inputs, difference));
+        }
+    }
+
+    /**
+     * Writes an assignment as name=value pairs, for error messages.
+     */
+    public static String describe(List<String> inputs, boolean[] assignment) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < inputs.size(); i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(inputs.get(i)).append('=').append(assignment[i] ? 1 : 0);
+        }
+        return builder.toString();
+    }
+}
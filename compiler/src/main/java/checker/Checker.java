@@ -1,8 +1,8 @@
 package checker;
 
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import parser.Program;
 import parser.Program.*;
@@ -10,27 +10,112 @@ import parser.Parser.*;
 
 public class Checker {
 
-    private static int identifier = 0;
-    
-    private static NumberFormat f = new DecimalFormat("000000");
-    
     public static CheckedProgram check(Program p) {
-        HashMap<String, Symbol> symbols = new HashMap<>();
-        List<String> nandParams = new ArrayList<>();
-        nandParams.add("x");
-        nandParams.add("y");
-        symbols.put("nand", new SymbolFunction(new Identifier("nand"), nandParams));
+        HashMap<String, Symbol> symbols = builtins();
         List<CheckedDefinition> definitions = new ArrayList<>();
+        int index = 0;
         for (Definition d : p.getDefinitions()) {
-            // copy the symbol table down
-            definitions.add(checkDefinition(d, symbols));
+            declareDefinition(d, symbols, index);
+            definitions.add(checkDefinition(d, symbols, index));
+            index++;
         }
         return new CheckedProgram(definitions, symbols);
     }
 
-    public static CheckedDefinition checkDefinition(Definition d, HashMap<String, Symbol> symbols) {
-        // System.out.println("Definition " + d);
+    public static CheckedProgram checkParallel(Program p) {
+        return checkParallel(p, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Checks every definition concurrently on the given pool. Checking a body only
+     * needs the signatures of the functions it calls, so all signatures are
+     * declared up front and the bodies are then independent of each other. Each
+     * scope only sees functions declared at or before its own definition, so the
+     * result, and the first error thrown, are the same as for {@link #check}.
+     */
+    public static CheckedProgram checkParallel(Program p, ForkJoinPool pool) {
+        HashMap<String, Symbol> symbols = builtins();
+        List<Definition> ds = p.getDefinitions();
+        int declared = 0;
+        RuntimeException duplicate = null;
+        for (Definition d : ds) {
+            try {
+                declareDefinition(d, symbols, declared);
+            } catch (RuntimeException e) {
+                duplicate = e;
+                break;
+            }
+            declared++;
+        }
+
+        CheckedDefinition[] checked = new CheckedDefinition[declared];
+        RuntimeException[] failures = new RuntimeException[declared];
+        pool.invoke(new CheckTask(ds, symbols, checked, failures, 0, declared));
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        if (duplicate != null) {
+            throw duplicate;
+        }
+        return new CheckedProgram(Arrays.asList(checked), symbols);
+    }
+
+    private static class CheckTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 16;
 
+        private List<Definition> definitions;
+        private HashMap<String, Symbol> symbols;
+        private CheckedDefinition[] checked;
+        private RuntimeException[] failures;
+        private int from, to;
+
+        public CheckTask(List<Definition> definitions, HashMap<String, Symbol> symbols,
+                CheckedDefinition[] checked, RuntimeException[] failures, int from, int to) {
+            this.definitions = definitions;
+            this.symbols = symbols;
+            this.checked = checked;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    try {
+                        checked[i] = checkDefinition(definitions.get(i), symbols, i);
+                    } catch (RuntimeException e) {
+                        failures[i] = e;
+                    }
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CheckTask(definitions, symbols, checked, failures, from, mid),
+                        new CheckTask(definitions, symbols, checked, failures, mid, to));
+            }
+        }
+    }
+
+    // Builtins are never modified, so every program shares them
+    private static final SymbolFunction NAND =
+        new SymbolFunction(new Identifier("nand"), Collections.unmodifiableList(Arrays.asList("x", "y")));
+
+    /**
+     * The global function table before any definition is declared.
+     */
+    public static HashMap<String, Symbol> builtins() {
+        HashMap<String, Symbol> symbols = new HashMap<>();
+        symbols.put(NAND.ident.name, NAND);
+        return symbols;
+    }
+
+    /**
+     * Adds the signature of a definition to the global function table.
+     */
+    public static void declareDefinition(Definition d, HashMap<String, Symbol> symbols, int index) {
         Identifier i = d.getIdentifier();
 
         if (symbols.containsKey(i.name)) {
@@ -40,9 +125,20 @@ public class Checker {
         for (Pattern p : d.getPatterns()) {
             params.add(((PatternIdentifier) p).ident.name);
         }
-        symbols.put(i.name, new SymbolFunction(i, params));
+        symbols.put(i.name, new SymbolFunction(i, params, index));
+    }
+
+    /**
+     * Checks the body of a definition that has already been declared. Only reads
+     * the global function table, so definitions can be checked concurrently.
+     */
+    public static CheckedDefinition checkDefinition(Definition d, Map<String, Symbol> symbols, int index) {
+        // System.out.println("Definition " + d);
+
+        Identifier i = d.getIdentifier();
 
-        HashMap<String, Symbol> s = new HashMap<>(symbols);
+        // Local scope on top of the functions declared so far
+        SymbolTable s = new SymbolTable(symbols, index);
 
         // Add the output node, 1, and 0 to the enclosed symbol table
         String outputName = i.name + "_OUTPUT";
@@ -53,11 +149,12 @@ public class Checker {
             checkPattern(p, s);
         }
         checkExpression(d.getExpression(), s, outputName, "");
+        s.dropIndex();
 
         return new CheckedDefinition(i, d.getPatterns(), d.getExpression(), s);
     }
 
-    public static void checkPattern(Pattern p, HashMap<String, Symbol> symbols) {
+    public static void checkPattern(Pattern p, SymbolTable symbols) {
         // System.out.println("Pattern " + p.toString());
         if (p.token == TokenKind.IDENT) {
             Symbol s = new Symbol(SymbolType.INPUT, ((PatternIdentifier) p).ident);
@@ -78,7 +175,17 @@ public class Checker {
         }
     }
 
-    public static void checkAssignment(Assignment assignment, HashMap<String, Symbol> symbols, String sink, String sinkInput) {
+    public static void checkAssignment(Assignment assignment, SymbolTable symbols, String sink, String sinkInput) {
+        declareAssignment(assignment, symbols);
+        String name = checkExpression(assignment.expression, symbols, assignment.ident.name, sinkInput);
+        finishAssignment(assignment, symbols, name);
+    }
+
+    /**
+     * Adds the variable bound by an assignment, taking over any references made to
+     * it before it was defined.
+     */
+    private static void declareAssignment(Assignment assignment, SymbolTable symbols) {
         Symbol variable = new SymbolVariable(assignment.ident, assignment.expression);
         if (symbols.containsKey(assignment.ident.name)) {
             Symbol s = symbols.get(assignment.ident.name);
@@ -94,25 +201,52 @@ public class Checker {
             }
         }
         symbols.put(assignment.ident.name, variable);
-        String name = checkExpression(assignment.expression, symbols, assignment.ident.name, sinkInput);
-        for (Symbol ss : symbols.values()) {
-            int index = ss.references.indexOf(name);
-            if (index != -1) {
-                ss.references.set(index, assignment.ident.name);
+    }
+
+    /**
+     * Replaces the node an assigned expression checked to with the variable.
+     */
+    private static void finishAssignment(Assignment assignment, SymbolTable symbols, String name) {
+        symbols.renameSink(name, assignment.ident.name);
+        symbols.remove(name);
+    }
+
+    /**
+     * Checks an expression and returns the name of the node that carries its value.
+     * Nested expressions are kept on an explicit work stack rather than recursed
+     * into, so long let chains and deeply nested calls need no extra thread stack.
+     * Work is done in the same order as a recursive walk would do it.
+     */
+    public static String checkExpression(Expression expression, SymbolTable symbols, String sink, String sinkInput) {
+        Work result = new Work(null, null, null, null);
+        Deque<Work> stack = new ArrayDeque<>();
+        stack.push(new Work(expression, sink, sinkInput, result));
+        while (!stack.isEmpty()) {
+            Work work = stack.pop();
+            if (work.expression == null) {
+                finishAssignment(work.assignment, symbols, work.name);
+            } else {
+                checkExpression(work, symbols, stack);
             }
         }
-        symbols.remove(name);
+        return result.name;
     }
 
-    public static String checkExpression(Expression expression, HashMap<String, Symbol> symbols, String sink, String sinkInput) {
+    private static void checkExpression(Work work, SymbolTable symbols, Deque<Work> stack) {
+        Expression expression = work.expression;
+        String sink = work.sink;
+        String sinkInput = work.sinkInput;
         // System.out.println("Expression " + expression);
         if (expression instanceof ExpressionLet) {
 
             ExpressionLet e = (ExpressionLet) expression;
-            // Allow check definition to modify this symbol table
-            checkAssignment(e.assignment, symbols, sink, sinkInput);
-            // Use that symbol table to validate the expression
-            return checkExpression(e.expression, symbols, sink, sinkInput);
+            // Check the assignment, then use that symbol table to validate the expression
+            declareAssignment(e.assignment, symbols);
+            Work finish = new Work(null, null, null, null);
+            finish.assignment = e.assignment;
+            stack.push(new Work(e.expression, sink, sinkInput, work.named));
+            stack.push(finish);
+            stack.push(new Work(e.assignment.expression, e.assignment.ident.name, sinkInput, finish));
 
         } else if (expression instanceof ExpressionIdentifier) {
 
@@ -120,13 +254,13 @@ public class Checker {
             if (!symbols.containsKey(e.ident.name)) {
                 symbols.put(e.ident.name, new SymbolUndefined(new Identifier(e.ident.name), new SymbolType[]{SymbolType.INPUT, SymbolType.VARIABLE}));
             }
-            symbols.get(e.ident.name).addReference(sink, sinkInput);
-            return e.ident.name;
+            symbols.addReference(e.ident.name, sink, sinkInput);
+            work.name(e.ident.name);
 
         } else if (expression instanceof ExpressionFunction) {
 
             ExpressionFunction e = (ExpressionFunction) expression;
-            String name = e.ident.name + f.format(identifier++);
+            String name = symbols.freshName(e.ident.name);
             Symbol s = symbols.get(e.ident.name);
             if (s != null) {
                 if (s.type != SymbolType.DEFINITION && s.type != SymbolType.UNDEFINED) {
@@ -139,29 +273,55 @@ public class Checker {
             }
             // Add symbol for function call
             symbols.put(name, new SymbolCall(new Identifier(name), e.ident.name));
-            symbols.get(name).addReference(sink, sinkInput);
+            symbols.addReference(name, sink, sinkInput);
 
             SymbolFunction f = (SymbolFunction) s;
             if (e.params.size() > f.params.size()) {
                 throw new RuntimeException("Too many parameters for function " + f.ident.name);
             }
-            int i = 0;
-            for (Expression child : e.params) {
-                // Give these a new scope
-                checkExpression(child, symbols, name, f.params.get(i));
-                i++;
+            // Pushed in reverse so they're checked in order
+            for (int i = e.params.size() - 1; i >= 0; i--) {
+                stack.push(new Work(e.params.get(i), name, f.params.get(i), null));
             }
-            return name;
+            work.name(name);
             
         } else if (expression instanceof ExpressionLiteral) {
             ExpressionLiteral e = (ExpressionLiteral) expression;
             if (e.literal != 0 && e.literal != 1) {
                 throw new RuntimeException("2 isn't real");
             }
-            symbols.get(e.literal == 1 ? "1" : "0").addReference(sink, sinkInput);
-            return e.literal == 1 ? "1" : "0";
+            symbols.addReference(e.literal == 1 ? "1" : "0", sink, sinkInput);
+            work.name(e.literal == 1 ? "1" : "0");
+        }
+    }
+
+    /**
+     * An expression waiting to be checked, or an assignment waiting to be finished
+     * once the expression it binds has been named.
+     */
+    private static class Work {
+        public Expression expression;
+        public String sink;
+        public String sinkInput;
+        // Where the name of the checked expression goes, if anything needs it
+        public Work named;
+        public Assignment assignment;
+        public String name;
+
+        public Work(Expression expression, String sink, String sinkInput, Work named) {
+            this.expression = expression;
+            this.sink = sink;
+            this.sinkInput = sinkInput;
+            this.named = named;
+            this.assignment = null;
+            this.name = null;
+        }
+
+        public void name(String name) {
+            if (named != null) {
+                named.name = name;
+            }
         }
-        return null;
     }
 
     public static class Symbol {
@@ -198,9 +358,16 @@ public class Checker {
 
     public static class SymbolFunction extends Symbol {
         public List<String> params;
+        // Position of the definition in the program, -1 for builtins
+        public int index;
         public SymbolFunction(Identifier ident, List<String> params) {
+            this(ident, params, -1);
+        }
+
+        public SymbolFunction(Identifier ident, List<String> params, int index) {
             super(SymbolType.DEFINITION, ident);
             this.params = params;
+            this.index = index;
         }
     }
 
@@ -251,9 +418,9 @@ public class Checker {
         public Identifier ident;
         public List<Pattern> patterns;
         public Expression result;
-        public HashMap<String, Symbol> symbols;
+        public SymbolTable symbols;
     
-        public CheckedDefinition(Identifier ident, List<Pattern> patterns, Expression result, HashMap<String, Symbol> symbols) {
+        public CheckedDefinition(Identifier ident, List<Pattern> patterns, Expression result, SymbolTable symbols) {
             this.ident = ident;
             this.patterns = patterns;
             this.result = result;
@@ -0,0 +1,152 @@
+package checker;
+
+import java.util.*;
+
+import checker.Checker.Symbol;
+import checker.Checker.SymbolFunction;
+
+/**
+ * Symbol table for a single definition. Local symbols are layered over the shared
+ * table of global functions, which is referenced rather than copied, so a scope
+ * only costs as much as the definition it belongs to. Only functions declared at
+ * or before the definition are visible, and the global table is only read, so
+ * several scopes can share it across threads.
+ *
+ * While the definition is being checked the table also keeps a reverse index from
+ * each sink name to the edges that point at it, so renaming a node only touches
+ * the edges that actually reference it.
+ */
+public class SymbolTable {
+    private Map<String, Symbol> globals;
+    private int scope;
+    private HashMap<String, Symbol> symbols;
+    // Globals removed from this scope, allocated on first use
+    private HashSet<String> hidden;
+    private HashMap<String, List<Edge>> sinks;
+    private int calls;
+
+    public SymbolTable(Map<String, Symbol> globals, int scope) {
+        this.globals = globals;
+        this.scope = scope;
+        this.symbols = new HashMap<>();
+        this.hidden = null;
+        this.sinks = new HashMap<>();
+        this.calls = 0;
+    }
+
+    public Symbol get(String name) {
+        Symbol s = symbols.get(name);
+        if (s == null && (hidden == null || !hidden.contains(name))) {
+            s = globals.get(name);
+            if (s instanceof SymbolFunction && ((SymbolFunction) s).index > scope) {
+                s = null;
+            }
+        }
+        return s;
+    }
+
+    public boolean containsKey(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * Adds or replaces a local symbol. A replacement is expected to carry over the
+     * references of the symbol it replaces, in the same order.
+     */
+    public void put(String name, Symbol symbol) {
+        symbols.put(name, symbol);
+    }
+
+    public void remove(String name) {
+        symbols.remove(name);
+        if (get(name) != null) {
+            if (hidden == null) {
+                hidden = new HashSet<>();
+            }
+            hidden.add(name);
+        }
+    }
+
+    /**
+     * The symbols local to this definition. Global functions are not included.
+     */
+    public Collection<Symbol> values() {
+        return symbols.values();
+    }
+
+    /**
+     * Returns a name for a new call node, numbered in the order calls are checked
+     * within this definition.
+     */
+    public String freshName(String function) {
+        String number = Integer.toString(calls++);
+        StringBuilder builder = new StringBuilder(function.length() + 6).append(function);
+        for (int i = number.length(); i < 6; i++) {
+            builder.append('0');
+        }
+        return builder.append(number).toString();
+    }
+
+    /**
+     * Adds an edge from the named symbol to the given sink and records it in the index.
+     */
+    public void addReference(String source, String sink, String sinkInput) {
+        Symbol s = get(source);
+        if (s instanceof SymbolFunction && ((SymbolFunction) s).index < 0) {
+            // Builtins are shared by every program, and edges on globals are never read
+            return;
+        }
+        if (s == symbols.get(source)) {
+            sinks.computeIfAbsent(sink, k -> new ArrayList<>()).add(new Edge(source, s.references.size()));
+            s.addReference(sink, sinkInput);
+        } else {
+            // A global used as a value, other scopes may be touching it too
+            synchronized (s) {
+                sinks.computeIfAbsent(sink, k -> new ArrayList<>()).add(new Edge(source, s.references.size()));
+                s.addReference(sink, sinkInput);
+            }
+        }
+    }
+
+    /**
+     * Points every edge whose sink is {@code from} at {@code to} instead.
+     */
+    public void renameSink(String from, String to) {
+        List<Edge> edges = sinks.remove(from);
+        if (edges == null) {
+            return;
+        }
+        List<Edge> moved = sinks.computeIfAbsent(to, k -> new ArrayList<>());
+        for (Edge edge : edges) {
+            Symbol s = get(edge.source);
+            // Skip edges whose source has since been removed
+            if (s == null) {
+                continue;
+            }
+            synchronized (s) {
+                if (edge.slot < s.references.size() && s.references.get(edge.slot).equals(from)) {
+                    s.references.set(edge.slot, to);
+                    moved.add(edge);
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the reverse index once checking is finished. Renaming is not
+     * possible afterwards.
+     */
+    public void dropIndex() {
+        sinks = null;
+    }
+
+    private static class Edge {
+        public String source;
+        public int slot;
+
+        public Edge(String source, int slot) {
+            this.source = source;
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package codegen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import checker.Checker.*;
+import parser.Program.*;
+
+/**
+ * Writes a checked program as a binary netlist that can be memory mapped and read
+ * in place by {@link BinaryNetlist}. All values are little endian ints, and every
+ * section is aligned to four bytes.
+ *
+ * <pre>
+ * header      magic, version, stringCount, definitionCount,
+ *             stringOffsetsPos, stringDataPos, definitionsPos
+ * strings     int[stringCount + 1] offsets into the UTF-8 string data
+ * definitions int[definitionCount] position of each definition record
+ * record      name, inputCount, nodeCount, edgeCount,
+ *             int[inputCount] input names,
+ *             int[nodeCount] node names, int[nodeCount] node kinds,
+ *             int[nodeCount] callees (-1 unless internal),
+ *             int[nodeCount + 1] first edge of each node,
+ *             int[edgeCount] sink nodes (-1 if not a node), int[edgeCount] sink inputs
+ * </pre>
+ *
+ * Names, callees and sink inputs are indices into the string table. Edges are
+ * grouped by source node, so a node's edges are {@code [first[n], first[n + 1])}.
+ */
+public class BinaryCodegen {
+    public static final int MAGIC = 0x4C4E4448; // "HDNL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 7 * 4;
+
+    public static final int KIND_INPUT = 0;
+    public static final int KIND_OUTPUT = 1;
+    public static final int KIND_INTERNAL = 2;
+
+    public static void gen(CheckedProgram p, OutputStream out) throws IOException {
+        HashMap<String, Integer> ids = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        List<int[]> records = new ArrayList<>();
+        for (CheckedDefinition d : p.definitions) {
+            records.add(record(d, ids, strings));
+        }
+
+        int[] stringOffsets = new int[strings.size() + 1];
+        for (int i = 0; i < strings.size(); i++) {
+            stringOffsets[i + 1] = stringOffsets[i] + strings.get(i).length;
+        }
+        int stringDataSize = align(stringOffsets[strings.size()]);
+
+        int stringOffsetsPos = HEADER_SIZE;
+        int stringDataPos = stringOffsetsPos + stringOffsets.length * 4;
+        int definitionsPos = stringDataPos + stringDataSize;
+        int position = definitionsPos + records.size() * 4;
+        int[] recordPositions = new int[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            recordPositions[i] = position;
+            position += records.get(i).length * 4;
+        }
+
+        Output output = new Output(out);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(strings.size());
+        output.writeInt(records.size());
+        output.writeInt(stringOffsetsPos);
+        output.writeInt(stringDataPos);
+        output.writeInt(definitionsPos);
+        output.writeInts(stringOffsets);
+        for (byte[] s : strings) {
+            output.writeBytes(s);
+        }
+        output.writeBytes(new byte[stringDataSize - stringOffsets[strings.size()]]);
+        output.writeInts(recordPositions);
+        for (int[] record : records) {
+            output.writeInts(record);
+        }
+        output.flush();
+    }
+
+    private static int[] record(CheckedDefinition d, HashMap<String, Integer> ids, List<byte[]> strings) {
+        List<Symbol> nodes = new ArrayList<>(d.symbols.values().size());
+        HashMap<String, Integer> nodeIndices = new HashMap<>();
+        int edgeCount = 0;
+        for (Symbol s : d.symbols.values()) {
+            if (s.type != SymbolType.DEFINITION) {
+                nodeIndices.put(s.ident.name, nodes.size());
+                nodes.add(s);
+                edgeCount += s.references.size();
+            }
+        }
+        int inputCount = d.patterns.size();
+        int nodeCount = nodes.size();
+
+        int[] record = new int[4 + inputCount + nodeCount * 4 + 1 + edgeCount * 2];
+        int names = 4 + inputCount;
+        int kinds = names + nodeCount;
+        int callees = kinds + nodeCount;
+        int firsts = callees + nodeCount;
+        int sinks = firsts + nodeCount + 1;
+        int sinkInputs = sinks + edgeCount;
+
+        record[0] = intern(d.ident.name, ids, strings);
+        record[1] = inputCount;
+        record[2] = nodeCount;
+        record[3] = edgeCount;
+        for (int i = 0; i < inputCount; i++) {
+            record[4 + i] = intern(((PatternIdentifier) d.patterns.get(i)).ident.name, ids, strings);
+        }
+        int edge = 0;
+        for (int n = 0; n < nodeCount; n++) {
+            Symbol s = nodes.get(n);
+            record[names + n] = intern(s.ident.name, ids, strings);
+            if (s.type == SymbolType.INPUT) {
+                record[kinds + n] = KIND_INPUT;
+                record[callees + n] = -1;
+            } else if (s.type == SymbolType.OUTPUT) {
+                record[kinds + n] = KIND_OUTPUT;
+                record[callees + n] = -1;
+            } else if (s.type == SymbolType.CALL) {
+                record[kinds + n] = KIND_INTERNAL;
+                record[callees + n] = intern(((SymbolCall) s).functionType, ids, strings);
+            } else if (s.type == SymbolType.VARIABLE) {
+                record[kinds + n] = KIND_INTERNAL;
+                record[callees + n] = intern(((SymbolVariable) s).value.type, ids, strings);
+            } else {
+                throw new RuntimeException("Found node of type " + s.type);
+            }
+            record[firsts + n] = edge;
+            for (int j = 0; j < s.references.size(); j++) {
+                Integer sink = nodeIndices.get(s.references.get(j));
+                record[sinks + edge] = sink == null ? -1 : sink;
+                record[sinkInputs + edge] = intern(s.referencesInputs.get(j), ids, strings);
+                edge++;
+            }
+        }
+        record[firsts + nodeCount] = edge;
+        return record;
+    }
+
+    private static int intern(String s, HashMap<String, Integer> ids, List<byte[]> strings) {
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = strings.size();
+            ids.put(s, id);
+            strings.add(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    private static int align(int size) {
+        return (size + 3) & ~3;
+    }
+
+    private static class Output {
+        private OutputStream out;
+        private ByteBuffer buffer;
+
+        public Output(OutputStream out) {
+            this.out = out;
+            this.buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        public void writeInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                drain();
+            }
+            buffer.putInt(value);
+        }
+
+        public void writeInts(int[] values) throws IOException {
+            for (int value : values) {
+                writeInt(value);
+            }
+        }
+
+        public void writeBytes(byte[] bytes) throws IOException {
+            if (buffer.remaining() < bytes.length) {
+                drain();
+            }
+            if (bytes.length > buffer.capacity()) {
+                out.write(bytes);
+            } else {
+                buffer.put(bytes);
+            }
+        }
+
+        public void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+    }
+}
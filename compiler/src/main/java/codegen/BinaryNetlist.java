@@ -0,0 +1,147 @@
+package codegen;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a netlist written by {@link BinaryCodegen} in place. Nothing is decoded up
+ * front, every accessor reads straight out of the (usually memory mapped) buffer.
+ * Files are limited to 2GB by the ByteBuffer API.
+ */
+public class BinaryNetlist {
+    private ByteBuffer buffer;
+    private int stringCount;
+    private int definitionCount;
+    private int stringOffsetsPos;
+    private int stringDataPos;
+    private int definitionsPos;
+
+    public BinaryNetlist(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (this.buffer.getInt(0) != BinaryCodegen.MAGIC) {
+            throw new RuntimeException("Not a binary netlist");
+        }
+        if (this.buffer.getInt(4) != BinaryCodegen.VERSION) {
+            throw new RuntimeException("Unsupported netlist version " + this.buffer.getInt(4));
+        }
+        this.stringCount = this.buffer.getInt(8);
+        this.definitionCount = this.buffer.getInt(12);
+        this.stringOffsetsPos = this.buffer.getInt(16);
+        this.stringDataPos = this.buffer.getInt(20);
+        this.definitionsPos = this.buffer.getInt(24);
+    }
+
+    public static BinaryNetlist open(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return new BinaryNetlist(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int stringCount() {
+        return stringCount;
+    }
+
+    public String string(int id) {
+        int start = buffer.getInt(stringOffsetsPos + id * 4);
+        int end = buffer.getInt(stringOffsetsPos + id * 4 + 4);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer view = buffer.duplicate();
+        view.position(stringDataPos + start);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int definitionCount() {
+        return definitionCount;
+    }
+
+    public Definition definition(int index) {
+        return new Definition(buffer.getInt(definitionsPos + index * 4));
+    }
+
+    /**
+     * Returns the definition with the given name, or null if there is none.
+     */
+    public Definition definition(String name) {
+        for (int i = 0; i < definitionCount; i++) {
+            Definition d = definition(i);
+            if (string(d.name()).equals(name)) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * View of a single definition record. Node and edge indices are local to it.
+     */
+    public class Definition {
+        private int position;
+        private int inputCount;
+        private int nodeCount;
+        private int edgeCount;
+
+        private Definition(int position) {
+            this.position = position;
+            this.inputCount = buffer.getInt(position + 4);
+            this.nodeCount = buffer.getInt(position + 8);
+            this.edgeCount = buffer.getInt(position + 12);
+        }
+
+        public int name() {
+            return buffer.getInt(position);
+        }
+
+        public int inputCount() {
+            return inputCount;
+        }
+
+        public int nodeCount() {
+            return nodeCount;
+        }
+
+        public int edgeCount() {
+            return edgeCount;
+        }
+
+        public int input(int i) {
+            return intAt(4 + i);
+        }
+
+        public int nodeName(int node) {
+            return intAt(4 + inputCount + node);
+        }
+
+        public int nodeKind(int node) {
+            return intAt(4 + inputCount + nodeCount + node);
+        }
+
+        public int callee(int node) {
+            return intAt(4 + inputCount + nodeCount * 2 + node);
+        }
+
+        /**
+         * Index of the first edge leaving the node. Its edges run up to firstEdge(node + 1).
+         */
+        public int firstEdge(int node) {
+            return intAt(4 + inputCount + nodeCount * 3 + node);
+        }
+
+        public int edgeSink(int edge) {
+            return intAt(4 + inputCount + nodeCount * 4 + 1 + edge);
+        }
+
+        public int edgeSinkInput(int edge) {
+            return intAt(4 + inputCount + nodeCount * 4 + 1 + edgeCount + edge);
+        }
+
+        private int intAt(int index) {
+            return buffer.getInt(position + index * 4);
+        }
+    }
+}
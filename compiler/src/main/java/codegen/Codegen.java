@@ -1,121 +1,365 @@
 package codegen;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import checker.Checker.*;
-import parser.Program;
+import flatten.Flattener;
+import flatten.Netlist;
+import packed.PackedProgram;
 import parser.Program.*;
 
 public class Codegen {
     public static void gen(CheckedProgram p, BufferedWriter writer) throws IOException {
-        writer.write("{\n");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        gen(p, out, false);
+        writer.write(new String(out.toByteArray(), StandardCharsets.UTF_8));
+        writer.flush();
+    }
+
+    /**
+     * Streams the program as JSON. Compact output has no whitespace at all apart
+     * from the trailing newline.
+     */
+    public static void gen(CheckedProgram p, OutputStream out, boolean compact) throws IOException {
+        JsonWriter writer = new JsonWriter(out, compact);
+        writer.raw('{');
+        writer.newLine();
 
         int k = 0;
         for (CheckedDefinition d : p.definitions) {
-            writeLineIndented("\"" + d.ident.name + "\": {", writer, 1);
-            // inputs
-            indent(writer, 2);
-            writer.write("\"inputs\": [");
-            for (int i = 0; i < d.patterns.size(); i++) {
-                Pattern pattern = d.patterns.get(i);
-                PatternIdentifier pIdent = (PatternIdentifier) pattern;
-                writer.write("\"" + pIdent.ident.name + "\"");
-                if (i != d.patterns.size() - 1) {
-                    writer.write(", ");
-                }
+            writeDefinition(writer, d);
+            endEntry(writer, k == p.definitions.size() - 1);
+            k++;
+        }
+        writer.raw('}');
+        // always end with a newline, even when compact
+        writer.raw('\n');
+        writer.flush();
+    }
+
+    /**
+     * Generates a single definition as it appears in a program, without the comma
+     * that separates it from the next one. See {@link #join}.
+     */
+    public static byte[] genDefinition(CheckedDefinition d, boolean compact) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out, compact);
+        writeDefinition(writer, d);
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a program from definitions generated by {@link #genDefinition}. The
+     * output is the same as generating the whole program at once.
+     */
+    public static void join(List<byte[]> definitions, OutputStream out, boolean compact) throws IOException {
+        JsonWriter writer = new JsonWriter(out, compact);
+        writer.raw('{');
+        writer.newLine();
+        for (int k = 0; k < definitions.size(); k++) {
+            writer.raw(definitions.get(k));
+            endEntry(writer, k == definitions.size() - 1);
+        }
+        writer.raw('}');
+        writer.raw('\n');
+        writer.flush();
+    }
+
+    /**
+     * Streams flattened netlists as JSON in the same shape as a program, with one
+     * definition per netlist whose internal nodes are all nand gates.
+     */
+    public static void gen(List<Netlist> netlists, OutputStream out, boolean compact) throws IOException {
+        JsonWriter writer = new JsonWriter(out, compact);
+        writer.raw('{');
+        writer.newLine();
+
+        int k = 0;
+        for (Netlist n : netlists) {
+            beginDefinition(writer, n.name, n.inputs);
+
+            int nets = n.netCount();
+            String[] names = new String[nets];
+            names[Netlist.FALSE] = "0";
+            names[Netlist.TRUE] = "1";
+            for (int i = 0; i < n.inputs.size(); i++) {
+                names[n.input(i)] = n.inputs.get(i);
             }
-            writer.write("],");
-            writer.newLine();
+            for (int g = 0; g < n.gateCount; g++) {
+                names[n.firstGate() + g] = gateName(g);
+            }
+            String output = n.name + "_OUTPUT";
+
+            // fan out of every net, as sink names and inputs
+            List<List<String>> sinks = new ArrayList<>(nets);
+            List<List<String>> sinkInputs = new ArrayList<>(nets);
+            for (int i = 0; i < nets; i++) {
+                sinks.add(new ArrayList<>(2));
+                sinkInputs.add(new ArrayList<>(2));
+            }
+            for (int g = 0; g < n.gateCount; g++) {
+                sinks.get(n.left[g]).add(names[n.firstGate() + g]);
+                sinkInputs.get(n.left[g]).add("x");
+                sinks.get(n.right[g]).add(names[n.firstGate() + g]);
+                sinkInputs.get(n.right[g]).add("y");
+            }
+            sinks.get(n.output).add(output);
+            sinkInputs.get(n.output).add("");
 
-            // nodes
-            writeLineIndented("\"nodes\": {", writer, 2);
-
-            List<Symbol> symbolsMinusDefs = new ArrayList<>(d.symbols.values());
-            symbolsMinusDefs.removeIf(s -> s.type == SymbolType.DEFINITION);
-            int i = 0, size = symbolsMinusDefs.size();
-            for (Symbol s : symbolsMinusDefs) {
-                
-                writeLineIndented("\"" + s.ident.name + "\"" + ": {", writer, 3);
-                if (s.type == SymbolType.INPUT) {
-                    writeLineIndented("\"type_\": \"Input\",", writer, 4);
-                } else if (s.type == SymbolType.OUTPUT) {
-                    writeLineIndented("\"type_\": \"Output\",", writer, 4);
-                } else if (s.type == SymbolType.CALL) {
-                    SymbolCall call = (SymbolCall) s;
-                    writeLineIndented("\"type_\": {", writer, 4);
-                    writeLineIndented("\"Internal\": \"" + call.functionType + "\"", writer, 5);
-                    writeLineIndented("},", writer, 4);
-                } else if (s.type == SymbolType.VARIABLE) {
-                    SymbolVariable var = (SymbolVariable) s;
-                    writeLineIndented("\"type_\": {", writer, 4);
-                    writeLineIndented("\"Internal\": \"" + var.value.type + "\"", writer, 5);
-                    writeLineIndented("},", writer, 4);
+            for (int i = 0; i < nets; i++) {
+                if (i < n.firstGate()) {
+                    writeNode(writer, names[i], "Input", null, false);
                 } else {
-                    throw new RuntimeException("Found node of type " + s.type);
+                    writeNode(writer, names[i], null, Flattener.NAND, false);
                 }
-                writeLineIndented("\"name\": \"" + s.ident.name + "\"", writer, 4);
-                if (i < size - 1) {
-                    writeLineIndented("},", writer, 3);
+            }
+            writeNode(writer, output, "Output", null, true);
+
+            beginEdges(writer);
+            for (int i = 0; i < nets; i++) {
+                writeEdges(writer, names[i], sinks.get(i), sinkInputs.get(i), false);
+            }
+            writeEdges(writer, output, Collections.emptyList(), Collections.emptyList(), true);
+            endDefinition(writer);
+            endEntry(writer, k == netlists.size() - 1);
+            k++;
+        }
+        writer.raw('}');
+        writer.raw('\n');
+        writer.flush();
+    }
+
+    /**
+     * Streams a packed program as JSON. The output is the same as generating the
+     * checked program it was packed from.
+     */
+    public static void gen(PackedProgram p, OutputStream out, boolean compact) throws IOException {
+        JsonWriter writer = new JsonWriter(out, compact);
+        writer.raw('{');
+        writer.newLine();
+
+        for (int d = 0; d < p.definitionCount; d++) {
+            List<String> inputs = new ArrayList<>();
+            for (int i = p.inputStart[d]; i < p.inputStart[d + 1]; i++) {
+                inputs.add(p.name(p.inputs[i]));
+            }
+            beginDefinition(writer, p.name(p.definitionName[d]), inputs);
+
+            int first = p.nodeStart[d];
+            int end = p.nodeStart[d + 1];
+            for (int n = first; n < end; n++) {
+                String name = p.name(p.nodeName[n]);
+                if (p.kind[n] == PackedProgram.INPUT) {
+                    writeNode(writer, name, "Input", null, n == end - 1);
+                } else if (p.kind[n] == PackedProgram.OUTPUT) {
+                    writeNode(writer, name, "Output", null, n == end - 1);
                 } else {
-                    writeLineIndented("}", writer, 3);
+                    writeNode(writer, name, null, p.name(p.callee[n]), n == end - 1);
                 }
-                i++;
             }
-            writeLineIndented("},\n", writer, 2);
-
-            // edges
-            writeLineIndented("\"edges\": {", writer, 2);
-            i = 0;
-            for (Symbol s : symbolsMinusDefs) {
-
-                writeLineIndented("\"" + s.ident.name + "\"" + ": [", writer, 3);
-                int j = 0;
-                while (j < s.references.size()) {
-                    writeLineIndented("{", writer, 4);
-                    writeLineIndented("\"source\": \"" + s.ident.name + "\",", writer, 5);
-                    writeLineIndented("\"sink\": [\"" + s.references.get(j) + "\", \"" + s.referencesInputs.get(j) + "\"]", writer, 5);
-                    if (j < s.references.size() - 1) {
-                        writeLineIndented("},", writer, 4);
-                    } else {
-                        writeLineIndented("}", writer, 4);
-                    }
-                    j++;
-                }
-                if (i < size - 1) {
-                    writeLineIndented("],", writer, 3);
-                } else {
-                    writeLineIndented("]", writer, 3);
+
+            beginEdges(writer);
+            for (int n = first; n < end; n++) {
+                String source = p.name(p.nodeName[n]);
+                beginSource(writer, source);
+                for (int e = p.outStart[n]; e < p.outStart[n + 1]; e++) {
+                    writeEdge(writer, source, p.name(p.nodeName[p.outSink[e]]), p.name(p.outInput[e]), e == p.outStart[n + 1] - 1);
                 }
-                i++;
+                endSource(writer, n == end - 1);
             }
-            writeLineIndented("}\n", writer, 2);
+            endDefinition(writer);
+            endEntry(writer, d == p.definitionCount - 1);
+        }
+        writer.raw('}');
+        writer.raw('\n');
+        writer.flush();
+    }
+
+    private static String gateName(int gate) {
+        String number = Integer.toString(gate);
+        StringBuilder builder = new StringBuilder(Flattener.NAND);
+        for (int i = number.length(); i < 6; i++) {
+            builder.append('0');
+        }
+        return builder.append(number).toString();
+    }
+
+    private static void writeDefinition(JsonWriter writer, CheckedDefinition d) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        for (Pattern pattern : d.patterns) {
+            inputs.add(((PatternIdentifier) pattern).ident.name);
+        }
+        beginDefinition(writer, d.ident.name, inputs);
 
-            if (k < p.definitions.size() - 1) {
-                writeLineIndented("},\n", writer, 1);
+        // nodes
+        List<Symbol> symbolsMinusDefs = new ArrayList<>(d.symbols.values().size());
+        for (Symbol s : d.symbols.values()) {
+            if (s.type != SymbolType.DEFINITION) {
+                symbolsMinusDefs.add(s);
+            }
+        }
+        int size = symbolsMinusDefs.size();
+        for (int i = 0; i < size; i++) {
+            Symbol s = symbolsMinusDefs.get(i);
+            if (s.type == SymbolType.INPUT) {
+                writeNode(writer, s.ident.name, "Input", null, i == size - 1);
+            } else if (s.type == SymbolType.OUTPUT) {
+                writeNode(writer, s.ident.name, "Output", null, i == size - 1);
+            } else if (s.type == SymbolType.CALL) {
+                writeNode(writer, s.ident.name, null, ((SymbolCall) s).functionType, i == size - 1);
+            } else if (s.type == SymbolType.VARIABLE) {
+                writeNode(writer, s.ident.name, null, ((SymbolVariable) s).value.type, i == size - 1);
             } else {
-                writeLineIndented("}\n", writer, 1);
+                throw new RuntimeException("Found node of type " + s.type);
             }
-            k++;
         }
-        writer.write("}");
+
+        // edges
+        beginEdges(writer);
+        for (int i = 0; i < size; i++) {
+            Symbol s = symbolsMinusDefs.get(i);
+            writeEdges(writer, s.ident.name, s.references, s.referencesInputs, i == size - 1);
+        }
+        endDefinition(writer);
+    }
+
+    private static void beginDefinition(JsonWriter writer, String name, List<String> inputs) throws IOException {
+        // names repeat within a definition, not across them
+        writer.clearStrings();
+
+        writer.indent(1);
+        writer.key(name);
+        writer.raw('{');
+        writer.newLine();
+
+        writer.indent(2);
+        writer.key("inputs");
+        writer.raw('[');
+        for (int i = 0; i < inputs.size(); i++) {
+            writer.string(inputs.get(i));
+            if (i != inputs.size() - 1) {
+                writer.comma();
+            }
+        }
+        writer.raw("],");
+        writer.newLine();
+
+        writer.indent(2);
+        writer.key("nodes");
+        writer.raw('{');
         writer.newLine();
-        writer.flush();
     }
 
-    private static void writeLineIndented(String content, BufferedWriter writer, int depth) throws IOException {
-        indent(writer, depth);
-        writer.write(content);
+    /**
+     * Writes a node whose type is either a plain kind, or internal with the callee.
+     */
+    private static void writeNode(JsonWriter writer, String name, String kind, String internal, boolean last) throws IOException {
+        writer.indent(3);
+        writer.key(name);
+        writer.raw('{');
+        writer.newLine();
+        writer.indent(4);
+        writer.key("type_");
+        if (kind != null) {
+            writer.string(kind);
+        } else {
+            writer.raw('{');
+            writer.newLine();
+            writer.indent(5);
+            writer.key("Internal");
+            writer.string(internal);
+            writer.newLine();
+            writer.indent(4);
+            writer.raw('}');
+        }
+        writer.raw(',');
+        writer.newLine();
+        writer.indent(4);
+        writer.key("name");
+        writer.string(name);
+        writer.newLine();
+        writer.indent(3);
+        writer.raw(last ? "}" : "},");
         writer.newLine();
     }
 
-    private static void indent(BufferedWriter writer, int depth) throws IOException {
-        String whitespace = "";
-        for (int i = 0; i < depth * 4; i++) {
-            whitespace += " ";
+    private static void beginEdges(JsonWriter writer) throws IOException {
+        writer.indent(2);
+        writer.raw("},");
+        writer.newLine();
+        writer.newLine();
+
+        writer.indent(2);
+        writer.key("edges");
+        writer.raw('{');
+        writer.newLine();
+    }
+
+    private static void writeEdges(JsonWriter writer, String source, List<String> sinks, List<String> sinkInputs, boolean last) throws IOException {
+        beginSource(writer, source);
+        int references = sinks.size();
+        for (int j = 0; j < references; j++) {
+            writeEdge(writer, source, sinks.get(j), sinkInputs.get(j), j == references - 1);
+        }
+        endSource(writer, last);
+    }
+
+    private static void beginSource(JsonWriter writer, String source) throws IOException {
+        writer.indent(3);
+        writer.key(source);
+        writer.raw('[');
+        writer.newLine();
+    }
+
+    private static void writeEdge(JsonWriter writer, String source, String sink, String sinkInput, boolean last) throws IOException {
+        writer.indent(4);
+        writer.raw('{');
+        writer.newLine();
+        writer.indent(5);
+        writer.key("source");
+        writer.string(source);
+        writer.raw(',');
+        writer.newLine();
+        writer.indent(5);
+        writer.key("sink");
+        writer.raw('[');
+        writer.string(sink);
+        writer.comma();
+        writer.string(sinkInput);
+        writer.raw(']');
+        writer.newLine();
+        writer.indent(4);
+        writer.raw(last ? "}" : "},");
+        writer.newLine();
+    }
+
+    private static void endSource(JsonWriter writer, boolean last) throws IOException {
+        writer.indent(3);
+        writer.raw(last ? "]" : "],");
+        writer.newLine();
+    }
+
+    private static void endDefinition(JsonWriter writer) throws IOException {
+        writer.indent(2);
+        writer.raw('}');
+        writer.newLine();
+        writer.newLine();
+
+        writer.indent(1);
+        writer.raw('}');
+    }
+
+    private static void endEntry(JsonWriter writer, boolean last) throws IOException {
+        if (!last) {
+            writer.raw(',');
         }
-        writer.write(whitespace);
+        writer.newLine();
+        writer.newLine();
     }
-}
\ No newline at end of file
+}
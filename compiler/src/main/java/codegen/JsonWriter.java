@@ -0,0 +1,165 @@
+package codegen;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Minimal JSON writer that encodes straight into a large byte buffer. Strings are
+ * escaped and encoded once and then cached, indentation is precomputed, and in
+ * compact mode all whitespace is left out.
+ */
+public class JsonWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int INDENT_WIDTH = 4;
+    private static final byte[][] INDENTS = new byte[8][];
+
+    static {
+        for (int depth = 0; depth < INDENTS.length; depth++) {
+            INDENTS[depth] = new byte[depth * INDENT_WIDTH];
+            Arrays.fill(INDENTS[depth], (byte) ' ');
+        }
+    }
+
+    private OutputStream out;
+    private boolean compact;
+    private byte[] buffer;
+    private int position;
+    private HashMap<String, byte[]> strings;
+
+    public JsonWriter(OutputStream out, boolean compact) {
+        this.out = out;
+        this.compact = compact;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.position = 0;
+        this.strings = new HashMap<>();
+    }
+
+    /**
+     * Writes a quoted, escaped string.
+     */
+    public void string(String s) throws IOException {
+        byte[] bytes = strings.get(s);
+        if (bytes == null) {
+            bytes = quote(s);
+            strings.put(s, bytes);
+        }
+        raw(bytes);
+    }
+
+    /**
+     * Writes an object key and the separator after it.
+     */
+    public void key(String s) throws IOException {
+        string(s);
+        raw(':');
+        if (!compact) {
+            raw(' ');
+        }
+    }
+
+    /**
+     * Writes a comma, followed by a space unless compact.
+     */
+    public void comma() throws IOException {
+        raw(',');
+        if (!compact) {
+            raw(' ');
+        }
+    }
+
+    /**
+     * Ends a line, unless compact.
+     */
+    public void newLine() throws IOException {
+        if (!compact) {
+            raw('\n');
+        }
+    }
+
+    /**
+     * Indents to the given depth, unless compact.
+     */
+    public void indent(int depth) throws IOException {
+        if (!compact) {
+            if (depth < INDENTS.length) {
+                raw(INDENTS[depth]);
+            } else {
+                for (int i = 0; i < depth; i++) {
+                    raw(INDENTS[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes ASCII punctuation or a literal as is.
+     */
+    public void raw(String s) throws IOException {
+        if (s.length() > buffer.length) {
+            raw(s.getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer[position++] = (byte) s.charAt(i);
+        }
+    }
+
+    public void raw(char c) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) c;
+    }
+
+    public void raw(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length) {
+            flushBuffer();
+            out.write(bytes);
+            return;
+        }
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * Forgets cached strings, for use between independent sections of output.
+     */
+    public void clearStrings() {
+        strings.clear();
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void ensure(int length) throws IOException {
+        if (position + length > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    private static byte[] quote(String s) {
+        StringBuilder builder = new StringBuilder(s.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
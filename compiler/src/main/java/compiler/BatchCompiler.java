@@ -0,0 +1,212 @@
+package compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import aiger.Aiger;
+import analyse.Analyser;
+import bdd.BddBuilder;
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import codegen.Codegen;
+import flatten.Flattener;
+import flatten.Netlist;
+import optimise.Optimiser;
+import optimise.Specialiser;
+import optimise.TreeShaker;
+import parser.Lexer;
+import parser.Parser;
+import parser.Program;
+
+/**
+ * Compiles many files in one JVM on a fixed number of threads. Each input gets its
+ * own output file, named after it with .json added, and a file that fails to
+ * compile doesn't stop the others. Analysis, if asked for, goes next to each output
+ * with .analysis.json added instead.
+ */
+public class BatchCompiler {
+    // Matches what the compiler gets on the main thread, deep programs recurse a lot
+    private static final long STACK_SIZE = 1L << 24;
+
+    public static class Failure {
+        public String file;
+        public Throwable error;
+
+        public Failure(String file, Throwable error) {
+            this.file = file;
+            this.error = error;
+        }
+
+        public String toString() {
+            String message = error.getMessage();
+            return file + ": " + (message == null ? error.toString() : message);
+        }
+    }
+
+    public boolean compact;
+    public boolean optimise;
+    // Prove each optimised netlist matches the original
+    public boolean verify;
+    public List<String> roots;
+    // Definitions to tree shake the program down to before anything else, if set
+    public List<String> keep;
+    public boolean specialise;
+    public boolean analyse;
+    public int jobs;
+
+    public BatchCompiler() {
+        this.compact = false;
+        this.optimise = false;
+        this.verify = false;
+        this.roots = null;
+        this.keep = null;
+        this.specialise = false;
+        this.analyse = false;
+        this.jobs = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Compiles every input into the output directory and returns the files that
+     * failed. Directories are searched for files recursively, and their outputs keep
+     * the same layout under the output directory.
+     */
+    public List<Failure> compile(List<String> inputs, String outputDirectory) throws IOException {
+        Path out = Path.of(outputDirectory);
+        // input -> output, in a stable order
+        LinkedHashMap<Path, Path> files = new LinkedHashMap<>();
+        HashMap<Path, Path> outputs = new HashMap<>();
+        for (String input : inputs) {
+            Path path = Path.of(input);
+            if (Files.isDirectory(path)) {
+                List<Path> found;
+                try (Stream<Path> walk = Files.walk(path)) {
+                    found = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+                for (Path file : found) {
+                    addFile(files, outputs, file, out.resolve(path.relativize(file).toString() + ".json"));
+                }
+            } else {
+                addFile(files, outputs, path, out.resolve(path.getFileName().toString() + ".json"));
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, jobs), r -> {
+            Thread thread = new Thread(null, r, "hdml-batch", STACK_SIZE);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (Map.Entry<Path, Path> file : files.entrySet()) {
+                results.add(pool.submit(() -> {
+                    compileFile(file.getKey(), file.getValue());
+                    return null;
+                }));
+            }
+
+            List<Failure> failures = new ArrayList<>();
+            int i = 0;
+            for (Path file : files.keySet()) {
+                try {
+                    results.get(i++).get();
+                } catch (ExecutionException e) {
+                    failures.add(new Failure(file.toString(), e.getCause()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while compiling " + file);
+                }
+            }
+            return failures;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void addFile(LinkedHashMap<Path, Path> files, HashMap<Path, Path> outputs, Path input, Path output) {
+        Path other = outputs.put(output.normalize(), input);
+        if (other != null && !other.equals(input)) {
+            throw new RuntimeException("Both " + other + " and " + input + " would be written to " + output);
+        }
+        files.put(input, output);
+    }
+
+    private void compileFile(Path input, Path output) throws IOException {
+        Program program;
+        if (Aiger.isAiger(input.toString())) {
+            program = Aiger.read(input.toString()).toProgram();
+        } else {
+            try (Lexer lexer = Lexer.open(input.toString())) {
+                program = Parser.parse(lexer);
+            }
+        }
+        CheckedProgram checked = Checker.check(program);
+        if (specialise) {
+            checked = Specialiser.specialise(checked);
+        }
+        if (keep != null) {
+            checked = TreeShaker.shake(checked, keep);
+        }
+        List<Analyser.Profile> profiles = analyse ? Analyser.analyse(checked) : null;
+        List<Netlist> netlists = null;
+        if (roots != null) {
+            netlists = new Flattener(checked).flatten(roots);
+            if (optimise) {
+                netlists.replaceAll(n -> {
+                    Netlist optimised = Optimiser.optimise(n);
+                    if (verify) {
+                        BddBuilder.verify(n, optimised);
+                    }
+                    return optimised;
+                });
+            }
+        }
+
+        List<Netlist> flattened = netlists;
+        CheckedProgram result = checked;
+        writeFile(output, out -> {
+            if (flattened != null) {
+                Codegen.gen(flattened, out, compact);
+            } else {
+                Codegen.gen(result, out, compact);
+            }
+        });
+        if (profiles != null) {
+            String name = output.getFileName().toString();
+            Path file = output.resolveSibling(name.substring(0, name.length() - ".json".length()) + ".analysis.json");
+            writeFile(file, out -> Analyser.write(profiles, out, compact));
+        }
+    }
+
+    private interface Writer {
+        void write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Writes to a temporary file next to the output and moves it into place, so
+     * code generation failing part way through never leaves a partial output.
+     */
+    private static void writeFile(Path output, Writer writer) throws IOException {
+        Path parent = output.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = Files.createTempFile(parent, output.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                writer.write(out);
+            }
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package compiler;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import checker.Checker;
+import checker.Checker.*;
+import codegen.Codegen;
+import parser.Lexer;
+import parser.Parser;
+import parser.Program;
+import parser.Program.*;
+
+/**
+ * Keeps checked definitions and their generated JSON between compiles, so a long
+ * running process only re-checks and re-emits the definitions that changed. A
+ * definition is reused when its syntax tree and the signatures of the functions it
+ * names are the same as last time. They're hashed to rule out most changes
+ * quickly, and compared in full when the hash matches.
+ *
+ * The server listens on a Unix domain socket and takes one request per connection:
+ *
+ * <pre>
+ * compile [--compact] FILE   replies "ok", then the JSON for FILE, which is the
+ *                            rest of the line and may contain spaces
+ * stop                       replies "ok", then the server exits
+ * </pre>
+ *
+ * Failures reply "error" followed by the message.
+ */
+public class CompileServer {
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    private static class Entry {
+        public Key key;
+        public CheckedDefinition checked;
+        public boolean compact;
+        public byte[] json;
+    }
+
+    // file -> definition name -> last compile of it
+    private HashMap<String, HashMap<String, Entry>> files;
+    // Counts for the last compile
+    public int checked;
+    public int reused;
+
+    public CompileServer() {
+        this.files = new HashMap<>();
+    }
+
+    public byte[] compile(String file, boolean compact) throws IOException {
+        Program program;
+        try (Lexer lexer = Lexer.open(file)) {
+            program = Parser.parse(lexer);
+        }
+        return compile(file, program, compact);
+    }
+
+    /**
+     * Checks and generates a program, reusing whatever is unchanged since the last
+     * compile of the same file. The output and the first error thrown are the same
+     * as for {@link Checker#check} and {@link Codegen#gen}.
+     */
+    public synchronized byte[] compile(String file, Program program, boolean compact) throws IOException {
+        HashMap<String, Entry> previous = files.getOrDefault(file, new HashMap<>());
+        HashMap<String, Entry> current = new HashMap<>();
+        HashMap<String, Symbol> symbols = Checker.builtins();
+        List<byte[]> definitions = new ArrayList<>();
+        checked = 0;
+        reused = 0;
+
+        int index = 0;
+        for (Definition d : program.getDefinitions()) {
+            Checker.declareDefinition(d, symbols, index);
+            Key key = key(d, symbols, index);
+            Entry entry = previous.get(d.getIdentifier().name);
+            if (entry != null && entry.key.matches(key)) {
+                reused++;
+            } else {
+                entry = new Entry();
+                entry.key = key;
+                entry.checked = Checker.checkDefinition(d, symbols, index);
+                checked++;
+            }
+            if (entry.json == null || entry.compact != compact) {
+                entry.compact = compact;
+                entry.json = Codegen.genDefinition(entry.checked, compact);
+            }
+            current.put(d.getIdentifier().name, entry);
+            definitions.add(entry.json);
+            index++;
+        }
+        // Only keep the definitions that are still in the file
+        files.put(file, current);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codegen.join(definitions, out, compact);
+        return out.toByteArray();
+    }
+
+    /**
+     * Serves compile requests on a Unix domain socket until asked to stop. A client
+     * that goes away mid request only loses its own reply.
+     */
+    public void serve(String socket) throws IOException {
+        Path path = Path.of(socket);
+        Files.deleteIfExists(path);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(path));
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = handle(client);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Dropped connection: " + e);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private boolean handle(SocketChannel client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+        OutputStream out = Channels.newOutputStream(client);
+        String request = in.readLine();
+        if (request != null && request.trim().equals("stop")) {
+            try {
+                reply(out, "ok\n");
+                out.flush();
+            } catch (IOException e) {
+                // Stop anyway, the client just won't hear about it
+            }
+            return false;
+        }
+        // The whole reply is ready before anything is written, so a client that has
+        // gone away only fails the write
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        try {
+            String file = null;
+            boolean compact = false;
+            if (request != null && request.startsWith("compile ")) {
+                file = request.substring("compile ".length());
+                if (file.startsWith("--compact ")) {
+                    file = file.substring("--compact ".length());
+                    compact = true;
+                }
+            }
+            if (file != null && !file.isEmpty()) {
+                byte[] json = compile(file, compact);
+                reply(response, "ok\n");
+                response.write(json);
+            } else {
+                reply(response, "error Unknown request " + request + "\n");
+            }
+        } catch (IOException e) {
+            response.reset();
+            reply(response, "error Can't read " + e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            response.reset();
+            reply(response, "error " + e.getMessage() + "\n");
+        }
+        response.writeTo(out);
+        out.flush();
+        return true;
+    }
+
+    private static void reply(OutputStream out, String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The syntax tree of a definition along with the global symbol, if any, that
+     * each name in it would see when checked at the given index, written out as
+     * text and hashed.
+     */
+    private static class Key {
+        public long hash;
+        public StringBuilder text;
+
+        public Key() {
+            this.hash = FNV_OFFSET;
+            this.text = new StringBuilder();
+        }
+
+        public void add(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                hash = (hash ^ s.charAt(i)) * FNV_PRIME;
+            }
+            // separate consecutive strings
+            hash = (hash ^ 0xFF) * FNV_PRIME;
+            text.append(s.length()).append(':').append(s);
+        }
+
+        public boolean matches(Key other) {
+            return hash == other.hash && text.length() == other.text.length() && text.compareTo(other.text) == 0;
+        }
+    }
+
+    private static Key key(Definition d, HashMap<String, Symbol> symbols, int index) {
+        Key h = new Key();
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        h.add(d.getIdentifier().name);
+        names.add(d.getIdentifier().name);
+        for (Pattern p : d.getPatterns()) {
+            h.add(p.toString());
+            if (p instanceof PatternIdentifier) {
+                names.add(((PatternIdentifier) p).ident.name);
+            }
+        }
+
+        // Walk the body without recursing, lets can nest very deeply
+        Deque<Expression> stack = new ArrayDeque<>();
+        stack.push(d.getExpression());
+        while (!stack.isEmpty()) {
+            Expression e = stack.pop();
+            if (e instanceof ExpressionLet) {
+                ExpressionLet let = (ExpressionLet) e;
+                h.add("let");
+                h.add(let.assignment.ident.name);
+                names.add(let.assignment.ident.name);
+                stack.push(let.expression);
+                stack.push(let.assignment.expression);
+            } else if (e instanceof ExpressionFunction) {
+                ExpressionFunction f = (ExpressionFunction) e;
+                h.add("(");
+                h.add(f.ident.name);
+                h.add(Integer.toString(f.params.size()));
+                names.add(f.ident.name);
+                for (int i = f.params.size() - 1; i >= 0; i--) {
+                    stack.push(f.params.get(i));
+                }
+            } else if (e instanceof ExpressionIdentifier) {
+                h.add("=");
+                h.add(((ExpressionIdentifier) e).ident.name);
+                names.add(((ExpressionIdentifier) e).ident.name);
+            } else if (e instanceof ExpressionLiteral) {
+                h.add("#");
+                h.add(Integer.toString(((ExpressionLiteral) e).literal));
+            } else {
+                throw new RuntimeException("Unknown expression " + e);
+            }
+        }
+
+        for (String name : names) {
+            Symbol s = symbols.get(name);
+            if (s instanceof SymbolFunction && ((SymbolFunction) s).index <= index) {
+                h.add("function");
+                h.add(name);
+                h.add(String.join(" ", ((SymbolFunction) s).params));
+            } else {
+                h.add("local");
+            }
+        }
+        h.text.trimToSize();
+        return h;
+    }
+}
@@ -0,0 +1,143 @@
+package compiler;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import checker.Checker.*;
+
+/**
+ * Records the wall time, allocated bytes and a few size counts of each compile
+ * phase. Every phase is also committed as a Flight Recorder event, which costs
+ * next to nothing unless a recording is running. Allocation is measured on the
+ * compiling thread only, so work handed to other threads isn't included.
+ */
+public class CompileStats {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    @Name("hdml.CompilePhase")
+    @Label("Compile Phase")
+    @Category("HDML")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+
+        @Label("Counts")
+        String counts;
+    }
+
+    public static class Phase {
+        public String name;
+        public long nanos;
+        // -1 if the JVM can't measure it
+        public long allocated;
+        public LinkedHashMap<String, Long> counts;
+
+        private long startNanos;
+        private long startAllocated;
+        private PhaseEvent event;
+
+        private Phase(String name) {
+            this.name = name;
+            this.counts = new LinkedHashMap<>();
+            this.event = new PhaseEvent();
+            this.event.begin();
+            this.startAllocated = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        public void count(String key, long value) {
+            counts.put(key, value);
+        }
+
+        public void end() {
+            nanos = System.nanoTime() - startNanos;
+            long after = allocatedBytes();
+            allocated = after < 0 || startAllocated < 0 ? -1 : after - startAllocated;
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = name;
+                event.allocated = allocated;
+                event.counts = counts.toString();
+                event.commit();
+            }
+        }
+    }
+
+    public List<Phase> phases;
+
+    public CompileStats() {
+        this.phases = new ArrayList<>();
+    }
+
+    public Phase start(String name) {
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * Counts the symbols and edges of a checked program. The peak is the largest
+     * local symbol table of any one definition.
+     */
+    public static void countChecked(Phase phase, CheckedProgram p) {
+        long symbols = 0;
+        long edges = 0;
+        long peak = 0;
+        for (CheckedDefinition d : p.definitions) {
+            long size = 0;
+            for (Symbol s : d.symbols.values()) {
+                size++;
+                edges += s.references.size();
+            }
+            symbols += size;
+            peak = Math.max(peak, size);
+        }
+        phase.count("definitions", p.definitions.size());
+        phase.count("globals", p.symbols.size());
+        phase.count("symbols", symbols);
+        phase.count("edges", edges);
+        phase.count("peak_symbols", peak);
+    }
+
+    /**
+     * Prints one line per phase as space separated key=value pairs.
+     */
+    public void print(PrintStream out) {
+        StringBuilder builder = new StringBuilder();
+        for (Phase phase : phases) {
+            builder.append("stats phase=").append(phase.name);
+            builder.append(" wall_ms=").append(String.format(Locale.ROOT, "%.3f", phase.nanos / 1e6));
+            builder.append(" allocated_bytes=").append(phase.allocated);
+            for (Map.Entry<String, Long> count : phase.counts.entrySet()) {
+                builder.append(' ').append(count.getKey()).append('=').append(count.getValue());
+            }
+            builder.append('\n');
+        }
+        out.print(builder);
+        out.flush();
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -1,37 +1,484 @@
 package compiler;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.util.*;
 
+import aiger.Aiger;
+import analyse.Analyser;
+import bdd.BddBuilder;
 import checker.Checker;
 import checker.Checker.CheckedProgram;
+import codegen.BinaryCodegen;
 import codegen.Codegen;
+import flatten.Flattener;
+import flatten.Netlist;
+import optimise.Optimiser;
+import optimise.Specialiser;
+import optimise.TreeShaker;
+import packed.PackedFlattener;
+import packed.PackedProgram;
+import parser.Lexer;
 import parser.Parser;
 import parser.Program;
 import parser.Parser.Token;
+import sim.BitSimulator;
+import sim.FaultSimulator;
+import sim.ParallelSimulator;
 
 public class Compiler {
     public static void main(String[] args) {
-        List<Token> tokens = new ArrayList<>();
-        if (args.length != 1) {
+        List<String> files = new ArrayList<>();
+        boolean parallel = false;
+        boolean compact = false;
+        boolean optimise = false;
+        boolean verify = false;
+        boolean specialise = false;
+        boolean packed = false;
+        List<String> equivalent = null;
+        boolean faults = false;
+        String vectors = null;
+        String binary = null;
+        String aiger = null;
+        boolean analyse = false;
+        String analysis = null;
+        String simulate = null;
+        String server = null;
+        boolean printStats = false;
+        String outputDirectory = null;
+        int jobs = 0;
+        List<String> roots = null;
+        List<String> keep = null;
+        for (String arg : args) {
+            if (arg.equals("--parallel")) {
+                parallel = true;
+            } else if (arg.equals("--compact")) {
+                compact = true;
+            } else if (arg.equals("--optimise")) {
+                optimise = true;
+            } else if (arg.equals("--specialise")) {
+                specialise = true;
+            } else if (arg.equals("--packed")) {
+                packed = true;
+            } else if (arg.equals("--verify")) {
+                verify = true;
+            } else if (arg.startsWith("--equivalent=")) {
+                equivalent = Arrays.asList(arg.substring("--equivalent=".length()).split(","));
+                if (equivalent.size() != 2) {
+                    throw new RuntimeException("--equivalent takes two definitions");
+                }
+            } else if (arg.equals("--faults")) {
+                faults = true;
+            } else if (arg.startsWith("--vectors=")) {
+                vectors = arg.substring("--vectors=".length());
+            } else if (arg.equals("--analyse")) {
+                analyse = true;
+            } else if (arg.startsWith("--analyse=")) {
+                analysis = arg.substring("--analyse=".length());
+            } else if (arg.startsWith("--aiger=")) {
+                aiger = arg.substring("--aiger=".length());
+            } else if (arg.startsWith("--binary=")) {
+                binary = arg.substring("--binary=".length());
+            } else if (arg.startsWith("--flatten=")) {
+                roots = Arrays.asList(arg.substring("--flatten=".length()).split(","));
+            } else if (arg.startsWith("--root=")) {
+                keep = Arrays.asList(arg.substring("--root=".length()).split(","));
+            } else if (arg.startsWith("--simulate=")) {
+                simulate = arg.substring("--simulate=".length());
+            } else if (arg.equals("--stats")) {
+                printStats = true;
+            } else if (arg.startsWith("--out=")) {
+                outputDirectory = arg.substring("--out=".length());
+            } else if (arg.startsWith("--jobs=")) {
+                jobs = Integer.parseInt(arg.substring("--jobs=".length()));
+            } else if (arg.startsWith("--server=")) {
+                server = arg.substring("--server=".length());
+            } else if (arg.startsWith("--")) {
+                throw new RuntimeException("Unknown option " + arg);
+            } else {
+                files.add(arg);
+            }
+        }
+        if (server != null) {
+            try {
+                new CompileServer().serve(server);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        if (outputDirectory != null) {
+            if (binary != null || aiger != null || simulate != null || printStats || analysis != null || equivalent != null || faults || packed) {
+                throw new RuntimeException("--binary, --aiger, --simulate, --stats, --analyse=FILE, --equivalent, --faults and --packed only work on a single file");
+            }
+            BatchCompiler batch = new BatchCompiler();
+            batch.compact = compact;
+            batch.optimise = optimise;
+            batch.verify = verify;
+            batch.roots = roots;
+            batch.keep = keep;
+            batch.specialise = specialise;
+            batch.analyse = analyse;
+            if (jobs > 0) {
+                batch.jobs = jobs;
+            }
+            List<BatchCompiler.Failure> failures;
+            try {
+                failures = batch.compile(files, outputDirectory);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            for (BatchCompiler.Failure failure : failures) {
+                System.err.println(failure);
+            }
+            if (!failures.isEmpty()) {
+                throw new RuntimeException(failures.size() + " files failed to compile");
+            }
+            return;
+        }
+        if (files.size() != 1) {
             throw new RuntimeException("Please pass a filename as the only parameter");
         }
-        String filename = args[0];
-		try {
-			tokens = Parser.tokenize(filename);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-        Program program = Parser.parse(tokens);
+        if (analyse) {
+            throw new RuntimeException("--analyse needs --out, use --analyse=FILE for a single file");
+        }
+        if (packed && (binary != null || analysis != null || equivalent != null || faults)) {
+            throw new RuntimeException("--packed doesn't work with --binary, --analyse=FILE, --equivalent or --faults");
+        }
+        if (aiger != null && roots == null) {
+            throw new RuntimeException("--aiger needs the definitions to write in --flatten");
+        }
+        String filename = files.get(0);
+        CompileStats stats = new CompileStats();
+        Program program = new Program();
+        try {
+            if (Aiger.isAiger(filename)) {
+                CompileStats.Phase phase = stats.start("parse");
+                Aiger graph = Aiger.read(filename);
+                phase.count("ands", graph.lhs.length);
+                program = graph.toProgram();
+                phase.count("definitions", program.getDefinitions().size());
+                phase.end();
+            } else if (printStats) {
+                // Tokenize up front so lexing and parsing are timed separately
+                CompileStats.Phase phase = stats.start("tokenize");
+                List<Token> tokens = Parser.tokenize(filename);
+                phase.count("tokens", tokens.size());
+                phase.end();
+                phase = stats.start("parse");
+                program = Parser.parse(tokens);
+                phase.count("definitions", program.getDefinitions().size());
+                phase.end();
+            } else {
+                CompileStats.Phase phase = stats.start("parse");
+                try (Lexer lexer = Lexer.open(filename)) {
+                    program = Parser.parse(lexer);
+                    phase.count("tokens", lexer.tokenCount());
+                }
+                phase.count("definitions", program.getDefinitions().size());
+                phase.end();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        CompileStats.Phase phase = stats.start("check");
+        CheckedProgram checked = parallel ? Checker.checkParallel(program) : Checker.check(program);
+        CompileStats.countChecked(phase, checked);
+        phase.end();
+
+        if (specialise) {
+            phase = stats.start("specialise");
+            Specialiser.Report report = new Specialiser.Report();
+            checked = Specialiser.specialise(checked, report);
+            phase.count("clones", report.clones);
+            phase.count("calls", report.calls);
+            phase.count("folded", report.folded);
+            phase.end();
+        }
+        if (keep != null) {
+            phase = stats.start("shake");
+            TreeShaker.Report report = new TreeShaker.Report();
+            checked = TreeShaker.shake(checked, keep, report);
+            phase.count("definitions_before", report.definitionsBefore);
+            phase.count("definitions_after", report.definitionsAfter);
+            phase.count("nodes_before", report.nodesBefore);
+            phase.count("nodes_after", report.nodesAfter);
+            phase.end();
+        }
+
+        PackedProgram packedProgram = null;
+        if (packed) {
+            phase = stats.start("pack");
+            packedProgram = PackedProgram.of(checked);
+            phase.count("nodes", packedProgram.nodeCount);
+            phase.count("edges", packedProgram.edgeCount);
+            phase.count("names", packedProgram.nameCount);
+            phase.count("bytes", packedProgram.arrayBytes());
+            phase.end();
+            // Nothing after this needs the symbol tables or the syntax tree
+            checked = null;
+            program = null;
+        }
 
-        CheckedProgram checked = Checker.check(program);
+        if (equivalent != null) {
+            phase = stats.start("equivalent");
+            BddBuilder builder = new BddBuilder(checked);
+            boolean[] difference = builder.difference(equivalent.get(0), equivalent.get(1));
+            phase.count("bdd_nodes", builder.bdd.nodeCount());
+            phase.end();
+            if (difference == null) {
+                System.out.println(equivalent.get(0) + " and " + equivalent.get(1) + " are equivalent");
+            } else {
+                List<String> inputs = builder.inputs(equivalent.get(0));
+                System.out.println(equivalent.get(0) + " and " + equivalent.get(1) + " differ when " + BddBuilder.describe(inputs, difference));
+            }
+            finish(stats, printStats);
+            return;
+        }
+        if (faults) {
+            phase = stats.start("faults");
+            int definitions = 0;
+            try {
+                definitions = printFaults(checked, roots, vectors);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            phase.count("definitions", definitions);
+            phase.end();
+            finish(stats, printStats);
+            return;
+        }
+        if (simulate != null) {
+            Netlist netlist = flatten(stats, checked, packedProgram, Collections.singletonList(simulate)).get(0);
+            printTruthTable(optimise ? optimise(stats, netlist, verify) : netlist, jobs);
+            finish(stats, printStats);
+            return;
+        }
         try {
-            Codegen.gen(checked, new BufferedWriter(new OutputStreamWriter(System.out)));
+            CountingOutputStream out = new CountingOutputStream(System.out);
+            if (roots != null) {
+                List<Netlist> netlists = flatten(stats, checked, packedProgram, roots);
+                if (optimise) {
+                    boolean check = verify;
+                    netlists.replaceAll(n -> optimise(stats, n, check));
+                }
+                if (aiger != null) {
+                    phase = stats.start("aiger");
+                    try (CountingOutputStream file = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(aiger)))) {
+                        Aiger.write(netlists, file, aiger.endsWith(".aig"));
+                        phase.count("bytes", file.count);
+                    }
+                    phase.end();
+                }
+                phase = stats.start("codegen");
+                Codegen.gen(netlists, out, compact);
+            } else if (packedProgram != null) {
+                phase = stats.start("codegen");
+                Codegen.gen(packedProgram, out, compact);
+            } else {
+                phase = stats.start("codegen");
+                Codegen.gen(checked, out, compact);
+            }
+            phase.count("bytes", out.count);
+            phase.end();
+            if (binary != null) {
+                phase = stats.start("binary");
+                try (CountingOutputStream file = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(binary)))) {
+                    BinaryCodegen.gen(checked, file);
+                    file.flush();
+                    phase.count("bytes", file.count);
+                }
+                phase.end();
+            }
+            if (analysis != null) {
+                phase = stats.start("analyse");
+                List<Analyser.Profile> profiles = Analyser.analyse(checked);
+                try (OutputStream file = new BufferedOutputStream(new FileOutputStream(analysis))) {
+                    Analyser.write(profiles, file, compact);
+                }
+                phase.count("definitions", profiles.size());
+                phase.end();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        finish(stats, printStats);
         return;
     }
+
+    private static void finish(CompileStats stats, boolean printStats) {
+        if (printStats) {
+            stats.print(System.err);
+        }
+    }
+
+    private static List<Netlist> flatten(CompileStats stats, CheckedProgram checked, PackedProgram packed, List<String> roots) {
+        CompileStats.Phase phase = stats.start("flatten");
+        List<Netlist> netlists = packed != null ? new PackedFlattener(packed).flatten(roots) : new Flattener(checked).flatten(roots);
+        long gates = 0;
+        for (Netlist n : netlists) {
+            gates += n.gateCount;
+        }
+        phase.count("netlists", netlists.size());
+        phase.count("gates", gates);
+        phase.end();
+        return netlists;
+    }
+
+    private static Netlist optimise(CompileStats stats, Netlist netlist, boolean verify) {
+        CompileStats.Phase phase = stats.start("optimise");
+        Netlist optimised = optimise(netlist);
+        phase.count("gates_before", netlist.gateCount);
+        phase.count("gates_after", optimised.gateCount);
+        phase.end();
+        if (verify) {
+            phase = stats.start("verify");
+            BddBuilder.verify(netlist, optimised);
+            phase.end();
+        }
+        return optimised;
+    }
+
+    /**
+     * Passes bytes through and counts them.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        public long count;
+
+        public CountingOutputStream(OutputStream out) {
+            super(out);
+            this.count = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static Netlist optimise(Netlist netlist) {
+        Optimiser.Report report = new Optimiser.Report();
+        Netlist optimised = Optimiser.optimise(netlist, report);
+        System.err.println(netlist.name + ": " + report);
+        return optimised;
+    }
+
+    /**
+     * Prints the stuck-at fault coverage of each root, or of every definition if
+     * there are no roots. Without a vectors file, definitions of up to 16 inputs get
+     * every combination and bigger ones get 4096 random vectors. Returns how many
+     * definitions were graded.
+     */
+    private static int printFaults(CheckedProgram checked, List<String> roots, String vectors) throws IOException {
+        List<String> names = roots;
+        if (names == null) {
+            names = new ArrayList<>();
+            for (Checker.CheckedDefinition d : checked.definitions) {
+                names.add(d.ident.name);
+            }
+        }
+        if (vectors != null && names.size() != 1) {
+            throw new RuntimeException("--vectors needs exactly one definition in --flatten");
+        }
+        Flattener flattener = new Flattener(checked);
+        int graded = 0;
+        for (String name : names) {
+            Netlist netlist;
+            try {
+                netlist = flattener.flatten(name);
+            } catch (RuntimeException e) {
+                System.err.println(name + ": " + e.getMessage());
+                continue;
+            }
+            FaultSimulator simulator = new FaultSimulator(netlist);
+            FaultSimulator.Report report;
+            if (vectors != null) {
+                report = simulator.simulate(readVectors(vectors, netlist.inputs.size()));
+            } else if (netlist.inputs.size() <= 16) {
+                report = simulator.simulateExhaustive();
+            } else {
+                report = simulator.simulateRandom(4096, 0);
+            }
+            StringBuilder builder = new StringBuilder();
+            builder.append(report).append('\n');
+            for (String fault : report.undetected) {
+                builder.append("    ").append(fault).append('\n');
+            }
+            System.out.print(builder);
+            graded++;
+        }
+        System.out.flush();
+        return graded;
+    }
+
+    /**
+     * Reads one vector per line, as a 0 or 1 per input. Blank lines are skipped.
+     */
+    private static boolean[][] readVectors(String filename, int inputs) throws IOException {
+        List<boolean[]> vectors = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.replaceAll("\\s", "");
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.length() != inputs) {
+                    throw new RuntimeException("Vector " + line + " doesn't have " + inputs + " inputs");
+                }
+                boolean[] vector = new boolean[inputs];
+                for (int i = 0; i < inputs; i++) {
+                    char c = line.charAt(i);
+                    if (c != '0' && c != '1') {
+                        throw new RuntimeException("Vector " + line + " should only be 0s and 1s");
+                    }
+                    vector[i] = c == '1';
+                }
+                vectors.add(vector);
+            }
+        }
+        return vectors.toArray(new boolean[0][]);
+    }
+
+    private static void printTruthTable(Netlist netlist, int threads) {
+        int n = netlist.inputs.size();
+        if (n > 20) {
+            throw new RuntimeException("Too many inputs to print a truth table: " + n);
+        }
+        long[] table;
+        if (threads > 1) {
+            try (ParallelSimulator simulator = new ParallelSimulator(netlist, threads)) {
+                table = simulator.truthTable();
+            }
+        } else {
+            table = new BitSimulator(netlist).truthTable();
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String input : netlist.inputs) {
+            builder.append(input).append(' ');
+        }
+        builder.append("| ").append(netlist.name).append('\n');
+        for (long row = 0; row < 1L << n; row++) {
+            for (int i = 0; i < n; i++) {
+                builder.append((row >>> i) & 1).append(' ');
+            }
+            builder.append("| ").append((table[(int) (row >>> 6)] >>> (row & 63)) & 1).append('\n');
+        }
+        System.out.print(builder);
+        System.out.flush();
+    }
 }
\ No newline at end of file
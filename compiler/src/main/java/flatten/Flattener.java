@@ -0,0 +1,206 @@
+package flatten;
+
+import java.util.*;
+
+import checker.Checker.*;
+import parser.Program.*;
+
+/**
+ * Inlines checked definitions down to nand gates. Each definition is flattened
+ * once into a template over its own inputs, and every call instantiates the cached
+ * template by offsetting its gate numbers. Call parameters that were never
+ * connected read as 0. Feedback loops can't be flattened into a gate order and are
+ * rejected.
+ */
+public class Flattener {
+    public static final String NAND = "nand";
+
+    private HashMap<String, CheckedDefinition> definitions;
+    private HashMap<String, Netlist> templates;
+    private HashSet<String> inProgress;
+
+    public Flattener(CheckedProgram p) {
+        this.definitions = new HashMap<>();
+        for (CheckedDefinition d : p.definitions) {
+            definitions.put(d.ident.name, d);
+        }
+        this.templates = new HashMap<>();
+        this.inProgress = new HashSet<>();
+    }
+
+    /**
+     * Flattens the named definition and levelises the result.
+     */
+    public Netlist flatten(String root) {
+        return template(root).levelise();
+    }
+
+    /**
+     * Flattens each of the roots. Definitions they share are only flattened once.
+     */
+    public List<Netlist> flatten(List<String> roots) {
+        List<Netlist> netlists = new ArrayList<>();
+        for (String root : roots) {
+            netlists.add(flatten(root));
+        }
+        return netlists;
+    }
+
+    /**
+     * Flattens a definition in terms of its own inputs. The result is cached and
+     * shared, so it must not be modified.
+     */
+    protected Netlist template(String name) {
+        Netlist cached = templates.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        CheckedDefinition d = definitions.get(name);
+        if (d == null) {
+            throw new RuntimeException("No definition named " + name);
+        }
+        if (!inProgress.add(name)) {
+            throw new RuntimeException("Can't flatten recursive definition " + name);
+        }
+        try {
+            Netlist template = build(d);
+            templates.put(name, template);
+            return template;
+        } finally {
+            inProgress.remove(name);
+        }
+    }
+
+    /**
+     * Copies a template into a netlist, reading its inputs from the given nets.
+     * Returns the net that carries the template's output.
+     */
+    public static int instantiate(Netlist into, Netlist template, int[] args) {
+        // Template gate g is appended as gate into.gateCount + g, so gate nets shift by a constant
+        int offset = into.firstGate() + into.gateCount - template.firstGate();
+        into.ensureCapacity(into.gateCount + template.gateCount);
+        for (int g = 0; g < template.gateCount; g++) {
+            into.addGate(map(template, template.left[g], args, offset), map(template, template.right[g], args, offset));
+        }
+        return map(template, template.output, args, offset);
+    }
+
+    private static int map(Netlist template, int net, int[] args, int offset) {
+        if (net >= template.firstGate()) {
+            return net + offset;
+        } else if (net >= template.input(0)) {
+            return args[net - template.input(0)];
+        }
+        return net;
+    }
+
+    private Netlist build(CheckedDefinition d) {
+        List<String> params = new ArrayList<>();
+        for (Pattern p : d.patterns) {
+            params.add(((PatternIdentifier) p).ident.name);
+        }
+        Netlist netlist = new Netlist(d.ident.name, params);
+
+        // sink -> sink input -> source, with inputs in edge order so gate numbering
+        // doesn't depend on hashing
+        HashMap<String, Symbol> nodes = new HashMap<>();
+        HashMap<String, HashMap<String, String>> drivers = new HashMap<>();
+        String output = null;
+        for (Symbol s : d.symbols.values()) {
+            if (s.type == SymbolType.DEFINITION) {
+                continue;
+            }
+            nodes.put(s.ident.name, s);
+            if (s.type == SymbolType.OUTPUT) {
+                output = s.ident.name;
+            }
+            for (int i = 0; i < s.references.size(); i++) {
+                HashMap<String, String> inputs = drivers.computeIfAbsent(s.references.get(i), k -> new LinkedHashMap<>());
+                if (inputs.put(s.referencesInputs.get(i), s.ident.name) != null) {
+                    throw new RuntimeException("Multiple drivers for " + s.references.get(i) + " " + s.referencesInputs.get(i));
+                }
+            }
+        }
+
+        // Depth first from the output, so only nodes the output depends on become
+        // gates, and every node is built after the nodes driving it
+        HashMap<String, Integer> nets = new HashMap<>();
+        HashSet<String> visiting = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(output);
+        while (!stack.isEmpty()) {
+            String n = stack.peek();
+            if (nets.containsKey(n)) {
+                stack.pop();
+                continue;
+            }
+            HashMap<String, String> inputs = drivers.getOrDefault(n, new HashMap<>());
+            boolean ready = true;
+            for (String source : inputs.values()) {
+                if (!nets.containsKey(source)) {
+                    if (visiting.contains(source)) {
+                        throw new RuntimeException("Can't flatten feedback loop through " + source + " in " + d.ident.name);
+                    }
+                    if (!nodes.containsKey(source)) {
+                        throw new RuntimeException("Unknown node " + source + " in " + d.ident.name);
+                    }
+                    ready = false;
+                    stack.push(source);
+                }
+            }
+            if (ready) {
+                nets.put(n, node(netlist, nodes.get(n), inputs, nets, params));
+                visiting.remove(n);
+                stack.pop();
+            } else {
+                visiting.add(n);
+            }
+        }
+        netlist.output = nets.get(output);
+        return netlist;
+    }
+
+    private int node(Netlist netlist, Symbol s, HashMap<String, String> inputs, HashMap<String, Integer> nets, List<String> params) {
+        String name = s.ident.name;
+        if (s.type == SymbolType.INPUT) {
+            if (name.equals("0")) {
+                return Netlist.FALSE;
+            } else if (name.equals("1")) {
+                return Netlist.TRUE;
+            }
+            return netlist.input(params.indexOf(name));
+        } else if (s.type == SymbolType.OUTPUT) {
+            if (inputs.isEmpty()) {
+                throw new RuntimeException("Nothing drives " + name);
+            }
+            return nets.get(inputs.values().iterator().next());
+        }
+
+        String function;
+        if (s.type == SymbolType.CALL) {
+            function = ((SymbolCall) s).functionType;
+        } else if (s.type == SymbolType.VARIABLE) {
+            function = ((SymbolVariable) s).value.type;
+        } else {
+            throw new RuntimeException("Found node of type " + s.type);
+        }
+
+        if (function.equals(NAND)) {
+            return netlist.addGate(arg(inputs, "x", nets), arg(inputs, "y", nets));
+        }
+        CheckedDefinition callee = definitions.get(function);
+        if (callee == null) {
+            throw new RuntimeException("Can't flatten " + name + ", " + function + " is not a definition");
+        }
+        int[] args = new int[callee.patterns.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = arg(inputs, ((PatternIdentifier) callee.patterns.get(i)).ident.name, nets);
+        }
+        return instantiate(netlist, template(function), args);
+    }
+
+    private static int arg(HashMap<String, String> inputs, String param, HashMap<String, Integer> nets) {
+        String source = inputs.get(param);
+        return source == null ? Netlist.FALSE : nets.get(source);
+    }
+}
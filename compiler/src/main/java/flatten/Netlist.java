@@ -0,0 +1,117 @@
+package flatten;
+
+import java.util.*;
+
+/**
+ * A definition flattened down to nand gates. Nets are numbered with the two
+ * constants first, then the inputs, then one net per gate, and gates only read
+ * nets numbered below their own, so gate order is a valid evaluation order.
+ */
+public class Netlist {
+    public static final int FALSE = 0;
+    public static final int TRUE = 1;
+
+    public String name;
+    public List<String> inputs;
+    public int gateCount;
+    public int[] left;
+    public int[] right;
+    public int output;
+    // Once levelised, gates of level l (counting from 1) are [levels[l - 1], levels[l])
+    public int[] levels;
+
+    public Netlist(String name, List<String> inputs) {
+        this.name = name;
+        this.inputs = inputs;
+        this.gateCount = 0;
+        this.left = new int[16];
+        this.right = new int[16];
+        this.output = FALSE;
+        this.levels = null;
+    }
+
+    public int input(int i) {
+        return 2 + i;
+    }
+
+    public int firstGate() {
+        return 2 + inputs.size();
+    }
+
+    public int netCount() {
+        return firstGate() + gateCount;
+    }
+
+    /**
+     * Adds a nand of the two nets and returns the net it drives.
+     */
+    public int addGate(int a, int b) {
+        ensureCapacity(gateCount + 1);
+        left[gateCount] = a;
+        right[gateCount] = b;
+        return firstGate() + gateCount++;
+    }
+
+    public void ensureCapacity(int gates) {
+        if (gates > left.length) {
+            int capacity = Math.max(gates, left.length * 2);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+        }
+    }
+
+    public int depth() {
+        return levels == null ? -1 : levels.length - 1;
+    }
+
+    /**
+     * Returns a copy with gates sorted by logic level, so every gate in a level only
+     * reads nets from earlier levels.
+     */
+    public Netlist levelise() {
+        int first = firstGate();
+        int[] level = new int[gateCount];
+        int depth = 0;
+        for (int g = 0; g < gateCount; g++) {
+            int a = left[g] < first ? 0 : level[left[g] - first];
+            int b = right[g] < first ? 0 : level[right[g] - first];
+            level[g] = Math.max(a, b) + 1;
+            depth = Math.max(depth, level[g]);
+        }
+
+        int[] starts = new int[depth + 1];
+        for (int g = 0; g < gateCount; g++) {
+            starts[level[g]]++;
+        }
+        for (int l = 1; l <= depth; l++) {
+            starts[l] += starts[l - 1];
+        }
+        // starts[l] is now the end of level l, shift it to get the starts
+        int[] levels = Arrays.copyOf(starts, depth + 1);
+        int[] next = new int[depth + 1];
+        for (int l = 1; l <= depth; l++) {
+            next[l] = starts[l - 1];
+        }
+
+        int[] map = new int[netCount()];
+        for (int n = 0; n < first; n++) {
+            map[n] = n;
+        }
+        for (int g = 0; g < gateCount; g++) {
+            map[first + g] = first + next[level[g]]++;
+        }
+
+        Netlist result = new Netlist(name, inputs);
+        result.gateCount = gateCount;
+        result.left = new int[Math.max(gateCount, 1)];
+        result.right = new int[Math.max(gateCount, 1)];
+        for (int g = 0; g < gateCount; g++) {
+            int to = map[first + g] - first;
+            result.left[to] = map[left[g]];
+            result.right[to] = map[right[g]];
+        }
+        result.output = map[output];
+        result.levels = levels;
+        return result;
+    }
+}
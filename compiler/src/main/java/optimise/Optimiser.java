@@ -0,0 +1,222 @@
+package optimise;
+
+import java.util.*;
+
+import flatten.Netlist;
+
+/**
+ * Structural hashing over flattened netlists. Gates are rebuilt in order through a
+ * unique table keyed on their (sorted) inputs, so identical gates are merged, and
+ * each gate is simplified as it is built:
+ *
+ * <pre>
+ * nand(0, x)      = 1
+ * nand(1, x)      = not x
+ * nand(x, not x)  = 1
+ * not (not x)     = x
+ * </pre>
+ *
+ * where not x is nand(x, x). Gates the output no longer depends on are dropped.
+ */
+public class Optimiser {
+
+    /**
+     * Each original gate that isn't rebuilt is counted once, as folded to a
+     * constant, an inversion or merged, so together with the dead gates these add
+     * up to before - after.
+     */
+    public static class Report {
+        public int before;
+        public int after;
+        public int folded;
+        public int inversions;
+        public int merged;
+        public int dead;
+
+        public String toString() {
+            return "gates " + before + " -> " + after
+                + " (folded " + folded
+                + ", inversions " + inversions
+                + ", merged " + merged
+                + ", dead " + dead + ")";
+        }
+    }
+
+    public static Netlist optimise(Netlist netlist) {
+        return optimise(netlist, new Report());
+    }
+
+    /**
+     * Returns an optimised copy of the netlist, levelised if the original was, and
+     * fills in the report.
+     */
+    public static Netlist optimise(Netlist netlist, Report report) {
+        report.before = netlist.gateCount;
+        int first = netlist.firstGate();
+
+        Netlist hashed = new Netlist(netlist.name, netlist.inputs);
+        hashed.ensureCapacity(netlist.gateCount);
+        UniqueTable unique = new UniqueTable(netlist.gateCount);
+        int[] map = new int[netlist.netCount()];
+        for (int n = 0; n < first; n++) {
+            map[n] = n;
+        }
+        for (int g = 0; g < netlist.gateCount; g++) {
+            map[first + g] = nand(hashed, unique, map[netlist.left[g]], map[netlist.right[g]], report);
+        }
+        hashed.output = map[netlist.output];
+
+        Netlist result = sweep(hashed, report);
+        report.after = result.gateCount;
+        return netlist.levels != null ? result.levelise() : result;
+    }
+
+    private static int nand(Netlist n, UniqueTable unique, int a, int b, Report report) {
+        if (a > b) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        if (a == Netlist.FALSE) {
+            report.folded++;
+            return Netlist.TRUE;
+        }
+        if (a == Netlist.TRUE) {
+            if (b == Netlist.TRUE) {
+                report.folded++;
+                return Netlist.FALSE;
+            }
+            // Only an inverter so far, counted below if it folds further
+            a = b;
+        }
+        if (a == b) {
+            // not of a not
+            int inner = inverted(n, a);
+            if (inner >= 0) {
+                report.inversions++;
+                return inner;
+            }
+        } else if (inverted(n, a) == b || inverted(n, b) == a) {
+            report.inversions++;
+            return Netlist.TRUE;
+        }
+
+        int existing = unique.get(a, b);
+        if (existing >= 0) {
+            report.merged++;
+            return existing;
+        }
+        int net = n.addGate(a, b);
+        unique.put(a, b, net);
+        return net;
+    }
+
+    /**
+     * If the net is an inverter returns the net it inverts, otherwise -1.
+     */
+    private static int inverted(Netlist n, int net) {
+        int g = net - n.firstGate();
+        if (g >= 0 && n.left[g] == n.right[g]) {
+            return n.left[g];
+        }
+        return -1;
+    }
+
+    /**
+     * Drops gates the output doesn't depend on and renumbers the rest in order.
+     */
+    private static Netlist sweep(Netlist n, Report report) {
+        int first = n.firstGate();
+        boolean[] live = new boolean[n.netCount()];
+        live[n.output] = true;
+        for (int g = n.gateCount - 1; g >= 0; g--) {
+            if (live[first + g]) {
+                live[n.left[g]] = true;
+                live[n.right[g]] = true;
+            }
+        }
+
+        Netlist result = new Netlist(n.name, n.inputs);
+        int[] map = new int[n.netCount()];
+        for (int i = 0; i < first; i++) {
+            map[i] = i;
+        }
+        for (int g = 0; g < n.gateCount; g++) {
+            if (live[first + g]) {
+                map[first + g] = result.addGate(map[n.left[g]], map[n.right[g]]);
+            } else {
+                report.dead++;
+            }
+        }
+        result.output = map[n.output];
+        return result;
+    }
+
+    /**
+     * Open addressing map from a pair of nets to the gate that nands them.
+     */
+    private static class UniqueTable {
+        private long[] keys;
+        private int[] values;
+        private int size;
+
+        public UniqueTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            Arrays.fill(values, -1);
+            this.size = 0;
+        }
+
+        public int get(int a, int b) {
+            long key = key(a, b);
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; values[slot] >= 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        public void put(int a, int b, int net) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            insert(key(a, b), net);
+            size++;
+        }
+
+        private void insert(long key, int net) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = net;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            Arrays.fill(values, -1);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) {
+                    insert(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static long key(int a, int b) {
+            return ((long) a << 32) | (b & 0xFFFFFFFFL);
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package optimise;
+
+import java.util.*;
+
+import checker.Checker.*;
+import checker.SymbolTable;
+import flatten.Flattener;
+import parser.Program.*;
+
+/**
+ * Partially evaluates calls whose arguments are tied to 0 or 1. Each callee gets
+ * one clone per pattern of constant arguments, named after the pattern (mux_1xx
+ * for mux with its first input tied high), with the tied inputs removed and the
+ * constants folded through its body:
+ *
+ * <pre>
+ * nand(0, x) = 1
+ * nand(1, 1) = 0
+ * nand(1, x) = nand(x, x)
+ * </pre>
+ *
+ * A call whose clone always outputs the same value becomes that constant in the
+ * caller, so constants keep going up the hierarchy, and the clone isn't kept.
+ * Clones are placed before the first definition that uses them, so callees still
+ * come before callers. Definitions with feedback loops are left as they are.
+ */
+public class Specialiser {
+    private static final int UNKNOWN = -1;
+
+    public static class Report {
+        public int clones;
+        public int calls;
+        public int folded;
+
+        public String toString() {
+            return "clones " + clones + ", calls " + calls + ", folded " + folded;
+        }
+    }
+
+    /**
+     * A definition under one pattern of constant inputs.
+     */
+    private static class Result {
+        public String name;
+        // 0 or 1 if the output doesn't depend on the remaining inputs
+        public int constant;
+
+        public Result(String name, int constant) {
+            this.name = name;
+            this.constant = constant;
+        }
+    }
+
+    private HashMap<String, CheckedDefinition> definitions;
+    // name + " " + pattern -> result, null if it can't be specialised
+    private HashMap<String, Result> results;
+    private List<CheckedDefinition> output;
+    private HashMap<String, Symbol> globals;
+    private Report report;
+
+    private Specialiser(CheckedProgram p, Report report) {
+        this.definitions = new HashMap<>();
+        for (CheckedDefinition d : p.definitions) {
+            definitions.put(d.ident.name, d);
+        }
+        this.results = new HashMap<>();
+        this.output = new ArrayList<>();
+        this.globals = new HashMap<>(p.symbols);
+        this.report = report;
+    }
+
+    public static CheckedProgram specialise(CheckedProgram p) {
+        return specialise(p, new Report());
+    }
+
+    /**
+     * Returns a new program, with every definition in its original order and clones
+     * in between. Definitions with nothing to fold are shared with the original.
+     */
+    public static CheckedProgram specialise(CheckedProgram p, Report report) {
+        Specialiser specialiser = new Specialiser(p, report);
+        for (CheckedDefinition d : p.definitions) {
+            specialiser.result(d.ident.name, pattern(d.patterns.size()));
+        }
+        return new CheckedProgram(specialiser.output, specialiser.globals);
+    }
+
+    private static String pattern(int inputs) {
+        char[] pattern = new char[inputs];
+        Arrays.fill(pattern, 'x');
+        return new String(pattern);
+    }
+
+    private Result result(String name, String pattern) {
+        String key = name + " " + pattern;
+        if (results.containsKey(key)) {
+            return results.get(key);
+        }
+        CheckedDefinition d = definitions.get(name);
+        if (d == null) {
+            return null;
+        }
+        boolean clone = pattern.indexOf('0') >= 0 || pattern.indexOf('1') >= 0;
+        String cloneName = clone ? freshName(name + "_" + pattern) : name;
+        if (clone) {
+            // Reserve the name so nested clones don't take it
+            globals.put(cloneName, null);
+        }
+        Result result = process(d, pattern, cloneName);
+        if (result == null && !clone) {
+            output.add(d);
+            result = new Result(name, UNKNOWN);
+        }
+        if (clone) {
+            globals.remove(cloneName);
+            if (result != null && result.constant != UNKNOWN) {
+                // Callers fold the constant, so the clone itself is never called
+                output.remove(output.size() - 1);
+            } else if (result != null) {
+                List<String> params = new ArrayList<>();
+                for (int i = 0; i < pattern.length(); i++) {
+                    if (pattern.charAt(i) == 'x') {
+                        params.add(param(d, i));
+                    }
+                }
+                globals.put(cloneName, new SymbolFunction(new Identifier(cloneName), params, output.size() - 1));
+                report.clones++;
+            }
+        }
+        results.put(key, result);
+        return result;
+    }
+
+    private String freshName(String name) {
+        while (globals.containsKey(name) || definitions.containsKey(name)) {
+            name = name + "_";
+        }
+        return name;
+    }
+
+    private static String param(CheckedDefinition d, int i) {
+        return ((PatternIdentifier) d.patterns.get(i)).ident.name;
+    }
+
+    /**
+     * Folds the constants through a definition and adds the result to the output.
+     * Returns null if the definition has a feedback loop.
+     */
+    private Result process(CheckedDefinition d, String pattern, String name) {
+        HashMap<String, Integer> tied = new HashMap<>();
+        for (int i = 0; i < pattern.length(); i++) {
+            if (pattern.charAt(i) != 'x') {
+                tied.put(param(d, i), pattern.charAt(i) - '0');
+            }
+        }
+
+        // sink -> sink input -> source
+        HashMap<String, Symbol> nodes = new HashMap<>();
+        HashMap<String, LinkedHashMap<String, String>> drivers = new HashMap<>();
+        String outputName = null;
+        for (Symbol s : d.symbols.values()) {
+            if (s.type == SymbolType.DEFINITION) {
+                continue;
+            }
+            nodes.put(s.ident.name, s);
+            if (s.type == SymbolType.OUTPUT) {
+                outputName = s.ident.name;
+            }
+            for (int i = 0; i < s.references.size(); i++) {
+                drivers.computeIfAbsent(s.references.get(i), k -> new LinkedHashMap<>()).put(s.referencesInputs.get(i), s.ident.name);
+            }
+        }
+
+        // Depth first from the output, so sources are folded before their sinks
+        HashMap<String, Integer> values = new HashMap<>();
+        // Nodes whose inputs or callee change: sink -> sink input -> source
+        HashMap<String, LinkedHashMap<String, String>> rewired = new HashMap<>();
+        HashMap<String, String> callees = new HashMap<>();
+        HashSet<String> visiting = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(outputName);
+        while (!stack.isEmpty()) {
+            String n = stack.peek();
+            if (values.containsKey(n)) {
+                stack.pop();
+                continue;
+            }
+            LinkedHashMap<String, String> inputs = drivers.getOrDefault(n, new LinkedHashMap<>());
+            boolean ready = true;
+            for (String source : inputs.values()) {
+                if (!values.containsKey(source)) {
+                    if (visiting.contains(source)) {
+                        return null;
+                    }
+                    if (!nodes.containsKey(source)) {
+                        throw new RuntimeException("Unknown node " + source + " in " + d.ident.name);
+                    }
+                    ready = false;
+                    stack.push(source);
+                }
+            }
+            if (ready) {
+                values.put(n, fold(nodes.get(n), inputs, values, tied, rewired, callees));
+                visiting.remove(n);
+                stack.pop();
+            } else {
+                visiting.add(n);
+            }
+        }
+
+        int constant = values.get(outputName);
+        int folded = 0;
+        for (Map.Entry<String, Integer> value : values.entrySet()) {
+            Symbol s = nodes.get(value.getKey());
+            if (value.getValue() != UNKNOWN && s.type != SymbolType.INPUT && s.type != SymbolType.OUTPUT) {
+                folded++;
+            }
+        }
+        if (tied.isEmpty() && folded == 0 && rewired.isEmpty()) {
+            output.add(d);
+            return new Result(name, constant);
+        }
+        report.folded += folded;
+        report.calls += callees.size();
+        output.add(rebuild(d, name, nodes, drivers, values, rewired, callees, tied.keySet(), outputName));
+        return new Result(name, constant);
+    }
+
+    private int fold(Symbol s, LinkedHashMap<String, String> inputs, HashMap<String, Integer> values,
+                     HashMap<String, Integer> tied, HashMap<String, LinkedHashMap<String, String>> rewired, HashMap<String, String> callees) {
+        String name = s.ident.name;
+        if (s.type == SymbolType.INPUT) {
+            if (name.equals("0")) {
+                return 0;
+            } else if (name.equals("1")) {
+                return 1;
+            }
+            return tied.getOrDefault(name, UNKNOWN);
+        } else if (s.type == SymbolType.OUTPUT) {
+            if (inputs.isEmpty()) {
+                throw new RuntimeException("Nothing drives " + name);
+            }
+            return values.get(inputs.values().iterator().next());
+        }
+
+        String function = callee(s);
+        if (function.equals(Flattener.NAND)) {
+            int x = value(inputs.get("x"), values);
+            int y = value(inputs.get("y"), values);
+            if (x == 0 || y == 0) {
+                return 1;
+            } else if (x == 1 && y == 1) {
+                return 0;
+            } else if (x == 1 || y == 1) {
+                // nand(1, a) is not a, which reads a on both inputs
+                String other = x == 1 ? inputs.get("y") : inputs.get("x");
+                LinkedHashMap<String, String> not = new LinkedHashMap<>();
+                not.put("x", other);
+                not.put("y", other);
+                rewired.put(name, not);
+            }
+            return UNKNOWN;
+        }
+        CheckedDefinition callee = definitions.get(function);
+        if (callee == null) {
+            return UNKNOWN;
+        }
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < callee.patterns.size(); i++) {
+            int value = value(inputs.get(param(callee, i)), values);
+            pattern.append(value == UNKNOWN ? 'x' : (char) ('0' + value));
+        }
+        Result result = result(function, pattern.toString());
+        if (result == null) {
+            return UNKNOWN;
+        } else if (result.constant != UNKNOWN) {
+            return result.constant;
+        }
+        if (!result.name.equals(function)) {
+            LinkedHashMap<String, String> remaining = new LinkedHashMap<>();
+            for (int i = 0; i < callee.patterns.size(); i++) {
+                if (pattern.charAt(i) == 'x') {
+                    String param = param(callee, i);
+                    remaining.put(param, inputs.get(param));
+                }
+            }
+            rewired.put(name, remaining);
+            callees.put(name, result.name);
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * The value on an input, where an input nothing drives reads as 0.
+     */
+    private static int value(String source, HashMap<String, Integer> values) {
+        return source == null ? 0 : values.get(source);
+    }
+
+    private static String callee(Symbol s) {
+        if (s.type == SymbolType.CALL) {
+            return ((SymbolCall) s).functionType;
+        } else if (s.type == SymbolType.VARIABLE) {
+            return ((SymbolVariable) s).value.type;
+        }
+        throw new RuntimeException("Found node of type " + s.type);
+    }
+
+    /**
+     * Builds the folded definition. Constant sources are replaced by the 0 and 1
+     * inputs, and only nodes the output still depends on are kept.
+     */
+    private CheckedDefinition rebuild(CheckedDefinition d, String name, HashMap<String, Symbol> nodes,
+                                      HashMap<String, LinkedHashMap<String, String>> drivers, HashMap<String, Integer> values,
+                                      HashMap<String, LinkedHashMap<String, String>> rewired, HashMap<String, String> callees,
+                                      Set<String> tied, String outputName) {
+        String newOutput = name + "_OUTPUT";
+
+        // sink -> sink input -> source, after folding
+        HashMap<String, LinkedHashMap<String, String>> edges = new HashMap<>();
+        HashSet<String> live = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(outputName);
+        while (!stack.isEmpty()) {
+            String n = stack.pop();
+            if (!live.add(n)) {
+                continue;
+            }
+            LinkedHashMap<String, String> inputs = rewired.getOrDefault(n, drivers.getOrDefault(n, new LinkedHashMap<>()));
+            LinkedHashMap<String, String> sources = new LinkedHashMap<>();
+            if (values.getOrDefault(n, UNKNOWN) == UNKNOWN || n.equals(outputName)) {
+                for (Map.Entry<String, String> input : inputs.entrySet()) {
+                    String source = input.getValue();
+                    Integer value = values.get(source);
+                    if (value != null && value != UNKNOWN) {
+                        source = value == 0 ? "0" : "1";
+                    }
+                    sources.put(input.getKey(), source);
+                    stack.push(source);
+                }
+            }
+            edges.put(n, sources);
+        }
+
+        List<Pattern> patterns = new ArrayList<>();
+        for (Pattern p : d.patterns) {
+            if (!tied.contains(((PatternIdentifier) p).ident.name)) {
+                patterns.add(p);
+            }
+        }
+        HashMap<String, Symbol> copies = new LinkedHashMap<>();
+        for (Symbol s : d.symbols.values()) {
+            String n = s.ident.name;
+            boolean keep = live.contains(n) && values.getOrDefault(n, UNKNOWN) == UNKNOWN
+                || s.type == SymbolType.OUTPUT
+                || n.equals("0") || n.equals("1")
+                || s.type == SymbolType.INPUT && !tied.contains(n);
+            if (s.type == SymbolType.DEFINITION || !keep) {
+                continue;
+            }
+            Symbol copy;
+            if (s.type == SymbolType.OUTPUT) {
+                copy = new Symbol(SymbolType.OUTPUT, new Identifier(newOutput));
+            } else if (callees.containsKey(n)) {
+                copy = new SymbolCall(s.ident, callees.get(n));
+            } else if (s.type == SymbolType.CALL) {
+                copy = new SymbolCall(s.ident, ((SymbolCall) s).functionType);
+            } else if (s.type == SymbolType.VARIABLE) {
+                copy = new SymbolVariable(s.ident, ((SymbolVariable) s).value);
+            } else {
+                copy = new Symbol(s.type, s.ident);
+            }
+            copies.put(n, copy);
+        }
+        // The checker may have renamed a literal's node after a let, so a folded
+        // source can name a constant the table doesn't have
+        for (LinkedHashMap<String, String> sources : edges.values()) {
+            for (String source : sources.values()) {
+                if ((source.equals("0") || source.equals("1")) && !copies.containsKey(source)) {
+                    copies.put(source, new Symbol(SymbolType.INPUT, new Identifier(source)));
+                }
+            }
+        }
+        for (Symbol s : d.symbols.values()) {
+            LinkedHashMap<String, String> sources = edges.get(s.ident.name);
+            if (sources == null || !copies.containsKey(s.ident.name)) {
+                continue;
+            }
+            String sink = s.ident.name.equals(outputName) ? newOutput : s.ident.name;
+            for (Map.Entry<String, String> input : sources.entrySet()) {
+                copies.get(input.getValue()).addReference(sink, input.getKey());
+            }
+        }
+
+        SymbolTable symbols = new SymbolTable(globals, output.size());
+        for (Symbol s : copies.values()) {
+            symbols.put(s.ident.name, s);
+        }
+        symbols.dropIndex();
+        return new CheckedDefinition(new Identifier(name), patterns, d.result, symbols);
+    }
+}
@@ -0,0 +1,179 @@
+package optimise;
+
+import java.util.*;
+
+import checker.Checker.*;
+import checker.SymbolTable;
+import parser.Program.*;
+
+/**
+ * Cuts a checked program down to what some root definitions need. Only the
+ * definitions the roots call, directly or not, are kept, and within each of them
+ * only the nodes with a path to the output. Inputs stay even when unused, since
+ * they're part of the definition's interface.
+ *
+ * The result shares nothing mutable with the original, whose symbols are copied
+ * rather than trimmed in place.
+ */
+public class TreeShaker {
+
+    public static class Report {
+        public int definitionsBefore;
+        public int definitionsAfter;
+        public int nodesBefore;
+        public int nodesAfter;
+
+        public String toString() {
+            return "definitions " + definitionsBefore + " -> " + definitionsAfter
+                + ", nodes " + nodesBefore + " -> " + nodesAfter;
+        }
+    }
+
+    public static CheckedProgram shake(CheckedProgram p, List<String> roots) {
+        return shake(p, roots, new Report());
+    }
+
+    public static CheckedProgram shake(CheckedProgram p, List<String> roots, Report report) {
+        HashMap<String, CheckedDefinition> definitions = new HashMap<>();
+        for (CheckedDefinition d : p.definitions) {
+            definitions.put(d.ident.name, d);
+        }
+
+        // Callees are only found through live nodes, so a definition only a dead node
+        // calls is dropped too
+        HashMap<String, List<Symbol>> live = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String root : roots) {
+            if (!definitions.containsKey(root)) {
+                throw new RuntimeException("No definition named " + root);
+            }
+            stack.push(root);
+        }
+        while (!stack.isEmpty()) {
+            String name = stack.pop();
+            if (live.containsKey(name)) {
+                continue;
+            }
+            List<Symbol> nodes = live(definitions.get(name));
+            live.put(name, nodes);
+            for (Symbol s : nodes) {
+                String callee = callee(s);
+                if (callee != null && definitions.containsKey(callee) && !live.containsKey(callee)) {
+                    stack.push(callee);
+                }
+            }
+        }
+
+        List<CheckedDefinition> kept = new ArrayList<>();
+        HashMap<String, Symbol> globals = new HashMap<>();
+        for (Map.Entry<String, Symbol> global : p.symbols.entrySet()) {
+            if (!definitions.containsKey(global.getKey()) || live.containsKey(global.getKey())) {
+                globals.put(global.getKey(), global.getValue());
+            }
+        }
+        report.definitionsBefore = p.definitions.size();
+        for (CheckedDefinition d : p.definitions) {
+            report.nodesBefore += nodeCount(d);
+            List<Symbol> nodes = live.get(d.ident.name);
+            if (nodes == null) {
+                continue;
+            }
+            Symbol global = p.symbols.get(d.ident.name);
+            int scope = global instanceof SymbolFunction ? ((SymbolFunction) global).index : Integer.MAX_VALUE;
+            HashSet<String> names = new HashSet<>();
+            for (Symbol s : nodes) {
+                names.add(s.ident.name);
+            }
+            SymbolTable symbols = new SymbolTable(globals, scope);
+            for (Symbol s : nodes) {
+                symbols.put(s.ident.name, copy(s, names));
+            }
+            symbols.dropIndex();
+            kept.add(new CheckedDefinition(d.ident, d.patterns, d.result, symbols));
+            report.nodesAfter += nodes.size();
+        }
+        report.definitionsAfter = kept.size();
+        return new CheckedProgram(kept, globals);
+    }
+
+    /**
+     * The nodes of a definition with a path to its output, plus its inputs.
+     */
+    private static List<Symbol> live(CheckedDefinition d) {
+        HashMap<String, Symbol> nodes = new HashMap<>();
+        // sink -> sources
+        HashMap<String, List<String>> drivers = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        HashSet<String> found = new HashSet<>();
+        for (Symbol s : d.symbols.values()) {
+            if (s.type == SymbolType.DEFINITION) {
+                continue;
+            }
+            nodes.put(s.ident.name, s);
+            for (String sink : s.references) {
+                drivers.computeIfAbsent(sink, k -> new ArrayList<>()).add(s.ident.name);
+            }
+            if (s.type == SymbolType.OUTPUT) {
+                stack.push(s.ident.name);
+            }
+        }
+        for (Pattern p : d.patterns) {
+            stack.push(((PatternIdentifier) p).ident.name);
+        }
+        while (!stack.isEmpty()) {
+            String n = stack.pop();
+            if (nodes.containsKey(n) && found.add(n)) {
+                for (String source : drivers.getOrDefault(n, Collections.emptyList())) {
+                    stack.push(source);
+                }
+            }
+        }
+
+        List<Symbol> result = new ArrayList<>();
+        for (Symbol s : d.symbols.values()) {
+            if (found.contains(s.ident.name)) {
+                result.add(s);
+            }
+        }
+        return result;
+    }
+
+    private static String callee(Symbol s) {
+        if (s.type == SymbolType.CALL) {
+            return ((SymbolCall) s).functionType;
+        } else if (s.type == SymbolType.VARIABLE) {
+            return ((SymbolVariable) s).value.type;
+        }
+        return null;
+    }
+
+    /**
+     * Copies a symbol, keeping only the edges into live nodes.
+     */
+    private static Symbol copy(Symbol s, HashSet<String> live) {
+        Symbol copy;
+        if (s.type == SymbolType.CALL) {
+            copy = new SymbolCall(s.ident, ((SymbolCall) s).functionType);
+        } else if (s.type == SymbolType.VARIABLE) {
+            copy = new SymbolVariable(s.ident, ((SymbolVariable) s).value);
+        } else {
+            copy = new Symbol(s.type, s.ident);
+        }
+        for (int i = 0; i < s.references.size(); i++) {
+            if (live.contains(s.references.get(i))) {
+                copy.addReference(s.references.get(i), s.referencesInputs.get(i));
+            }
+        }
+        return copy;
+    }
+
+    private static int nodeCount(CheckedDefinition d) {
+        int count = 0;
+        for (Symbol s : d.symbols.values()) {
+            if (s.type != SymbolType.DEFINITION) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,210 @@
+package packed;
+
+import java.util.*;
+
+import flatten.Flattener;
+import flatten.Netlist;
+
+/**
+ * Inlines a packed program down to nand gates, like {@link Flattener} does for a
+ * checked one, giving the same netlists. Drivers are read straight from the fan-in
+ * rows, so nothing is looked up by name once the flattener is built.
+ */
+public class PackedFlattener {
+    private static final int VISITING = 1;
+    private static final int DONE = 2;
+
+    private PackedProgram p;
+    private int nand;
+    private int x;
+    private int y;
+    // Name -> definition with that name, or -1
+    private int[] definitions;
+    // Name -> position among the inputs of the definition being built, or -1
+    private int[] params;
+    private Netlist[] templates;
+    private boolean[] inProgress;
+
+    public PackedFlattener(PackedProgram p) {
+        this.p = p;
+        this.nand = p.find(Flattener.NAND);
+        this.x = p.find("x");
+        this.y = p.find("y");
+        this.definitions = new int[p.nameCount];
+        Arrays.fill(definitions, -1);
+        for (int d = 0; d < p.definitionCount; d++) {
+            definitions[p.definitionName[d]] = d;
+        }
+        this.params = new int[p.nameCount];
+        Arrays.fill(params, -1);
+        this.templates = new Netlist[p.definitionCount];
+        this.inProgress = new boolean[p.definitionCount];
+    }
+
+    /**
+     * Flattens the named definition and levelises the result.
+     */
+    public Netlist flatten(String root) {
+        int d = p.definition(root);
+        if (d < 0) {
+            throw new RuntimeException("No definition named " + root);
+        }
+        return template(d).levelise();
+    }
+
+    public List<Netlist> flatten(List<String> roots) {
+        List<Netlist> netlists = new ArrayList<>();
+        for (String root : roots) {
+            netlists.add(flatten(root));
+        }
+        return netlists;
+    }
+
+    private Netlist template(int d) {
+        if (templates[d] != null) {
+            return templates[d];
+        }
+        if (inProgress[d]) {
+            throw new RuntimeException("Can't flatten recursive definition " + p.name(p.definitionName[d]));
+        }
+        inProgress[d] = true;
+        try {
+            templates[d] = build(d);
+            return templates[d];
+        } finally {
+            inProgress[d] = false;
+        }
+    }
+
+    private Netlist build(int d) {
+        String name = p.name(p.definitionName[d]);
+        List<String> inputs = new ArrayList<>();
+        for (int i = p.inputStart[d]; i < p.inputStart[d + 1]; i++) {
+            inputs.add(p.name(p.inputs[i]));
+        }
+        Netlist netlist = new Netlist(name, inputs);
+        int first = p.nodeStart[d];
+        int output = p.output[d];
+        if (output < 0) {
+            throw new RuntimeException(name + " has no output");
+        }
+        for (int n = first; n < p.nodeStart[d + 1]; n++) {
+            for (int e = p.inStart[n]; e < p.inStart[n + 1]; e++) {
+                for (int f = p.inStart[n]; f < e; f++) {
+                    if (p.inInput[f] == p.inInput[e]) {
+                        throw new RuntimeException("Multiple drivers for " + p.name(p.nodeName[n]) + " " + p.name(p.inInput[e]));
+                    }
+                }
+            }
+        }
+
+        // Inputs get their nets up front, before building calls reuses params
+        int size = p.nodeStart[d + 1] - first;
+        int[] nets = new int[size];
+        for (int i = p.inputStart[d]; i < p.inputStart[d + 1]; i++) {
+            params[p.inputs[i]] = i - p.inputStart[d];
+        }
+        for (int n = first; n < p.nodeStart[d + 1]; n++) {
+            if (p.kind[n] == PackedProgram.INPUT) {
+                nets[n - first] = input(netlist, n);
+            }
+        }
+        for (int i = p.inputStart[d]; i < p.inputStart[d + 1]; i++) {
+            params[p.inputs[i]] = -1;
+        }
+
+        // Depth first from the output, as in the flattener
+        byte[] state = new byte[size];
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = output;
+        while (top > 0) {
+            int n = stack[top - 1];
+            if (state[n - first] == DONE) {
+                top--;
+                continue;
+            }
+            boolean ready = true;
+            for (int e = p.inStart[n]; e < p.inStart[n + 1]; e++) {
+                int source = p.inSource[e];
+                if (state[source - first] != DONE) {
+                    if (state[source - first] == VISITING) {
+                        throw new RuntimeException("Can't flatten feedback loop through " + p.name(p.nodeName[source]) + " in " + name);
+                    }
+                    ready = false;
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = source;
+                }
+            }
+            if (ready) {
+                nets[n - first] = node(netlist, n, nets, first);
+                state[n - first] = DONE;
+                top--;
+            } else {
+                state[n - first] = VISITING;
+            }
+        }
+        netlist.output = nets[output - first];
+        return netlist;
+    }
+
+    private int node(Netlist netlist, int n, int[] nets, int first) {
+        String name = p.name(p.nodeName[n]);
+        if (p.kind[n] == PackedProgram.INPUT) {
+            return nets[n - first];
+        } else if (p.kind[n] == PackedProgram.OUTPUT) {
+            if (p.inStart[n] == p.inStart[n + 1]) {
+                throw new RuntimeException("Nothing drives " + name);
+            }
+            return nets[p.inSource[p.inStart[n]] - first];
+        }
+
+        int function = p.callee[n];
+        if (function == nand) {
+            return netlist.addGate(arg(n, x, nets, first), arg(n, y, nets, first));
+        }
+        int callee = definitions[function];
+        if (callee < 0) {
+            throw new RuntimeException("Can't flatten " + name + ", " + p.name(function) + " is not a definition");
+        }
+        Netlist template = template(callee);
+        // Each source lands on the callee input with its name, the rest read as 0
+        int[] args = new int[p.inputStart[callee + 1] - p.inputStart[callee]];
+        for (int i = 0; i < args.length; i++) {
+            params[p.inputs[p.inputStart[callee] + i]] = i;
+        }
+        for (int e = p.inStart[n]; e < p.inStart[n + 1]; e++) {
+            int i = params[p.inInput[e]];
+            if (i >= 0) {
+                args[i] = nets[p.inSource[e] - first];
+            }
+        }
+        for (int i = 0; i < args.length; i++) {
+            params[p.inputs[p.inputStart[callee] + i]] = -1;
+        }
+        return Flattener.instantiate(netlist, template, args);
+    }
+
+    private int input(Netlist netlist, int n) {
+        String name = p.name(p.nodeName[n]);
+        if (name.equals("0")) {
+            return Netlist.FALSE;
+        } else if (name.equals("1")) {
+            return Netlist.TRUE;
+        } else if (params[p.nodeName[n]] < 0) {
+            throw new RuntimeException(name + " is not an input");
+        }
+        return netlist.input(params[p.nodeName[n]]);
+    }
+
+    private int arg(int n, int param, int[] nets, int first) {
+        for (int e = p.inStart[n]; e < p.inStart[n + 1]; e++) {
+            if (p.inInput[e] == param) {
+                return nets[p.inSource[e] - first];
+            }
+        }
+        return Netlist.FALSE;
+    }
+}
@@ -0,0 +1,251 @@
+package packed;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import checker.Checker.*;
+import parser.Program.*;
+
+/**
+ * A checked program held in flat primitive arrays instead of one object per
+ * symbol. Names are interned once for the whole program, kept together as UTF-8
+ * and referred to by number, nodes of every definition live in one set of arrays,
+ * and edges are stored twice in compressed sparse row form: by source for fan-out
+ * and by sink for fan-in.
+ *
+ * Nodes of definition d are [nodeStart[d], nodeStart[d + 1]), in the order the
+ * checked definition iterates its symbols, so generating code from either gives
+ * the same output. Edges of a node keep the order of its references.
+ */
+public class PackedProgram {
+    public static final byte INPUT = 0;
+    public static final byte OUTPUT = 1;
+    public static final byte VARIABLE = 2;
+    public static final byte CALL = 3;
+
+    public int nameCount;
+    // Name i is the bytes [nameStart[i], nameStart[i + 1])
+    public byte[] nameBytes;
+    public int[] nameStart;
+
+    public int definitionCount;
+    public int[] definitionName;
+    // Inputs of definition d are inputs[inputStart[d]] to inputs[inputStart[d + 1] - 1]
+    public int[] inputStart;
+    public int[] inputs;
+    public int[] nodeStart;
+    public int[] output;
+
+    public int nodeCount;
+    public byte[] kind;
+    public int[] nodeName;
+    // Name of the callee for calls and variables, -1 for inputs and outputs
+    public int[] callee;
+
+    public int edgeCount;
+    // Fan-out of node n is edges [outStart[n], outStart[n + 1])
+    public int[] outStart;
+    public int[] outSink;
+    public int[] outInput;
+    // Fan-in of node n is edges [inStart[n], inStart[n + 1])
+    public int[] inStart;
+    public int[] inSource;
+    public int[] inInput;
+
+    private PackedProgram() {
+    }
+
+    public static PackedProgram of(CheckedProgram p) {
+        PackedProgram packed = new PackedProgram();
+        HashMap<String, Integer> interned = new HashMap<>();
+        List<String> names = new ArrayList<>();
+
+        int definitions = p.definitions.size();
+        packed.definitionCount = definitions;
+        packed.definitionName = new int[definitions];
+        packed.inputStart = new int[definitions + 1];
+        packed.nodeStart = new int[definitions + 1];
+        packed.output = new int[definitions];
+        int inputCount = 0;
+        int nodes = 0;
+        int edges = 0;
+        for (int d = 0; d < definitions; d++) {
+            CheckedDefinition definition = p.definitions.get(d);
+            inputCount += definition.patterns.size();
+            for (Symbol s : definition.symbols.values()) {
+                if (s.type != SymbolType.DEFINITION) {
+                    nodes++;
+                    edges += s.references.size();
+                }
+            }
+        }
+        packed.inputs = new int[inputCount];
+        packed.nodeCount = nodes;
+        packed.kind = new byte[nodes];
+        packed.nodeName = new int[nodes];
+        packed.callee = new int[nodes];
+        packed.edgeCount = edges;
+        packed.outStart = new int[nodes + 1];
+        packed.outSink = new int[edges];
+        packed.outInput = new int[edges];
+
+        int node = 0;
+        int edge = 0;
+        int input = 0;
+        // Local name -> node, reused between definitions
+        HashMap<String, Integer> local = new HashMap<>();
+        for (int d = 0; d < definitions; d++) {
+            CheckedDefinition definition = p.definitions.get(d);
+            packed.definitionName[d] = intern(definition.ident.name, interned, names);
+            packed.inputStart[d] = input;
+            for (Pattern pattern : definition.patterns) {
+                packed.inputs[input++] = intern(((PatternIdentifier) pattern).ident.name, interned, names);
+            }
+            packed.nodeStart[d] = node;
+            packed.output[d] = -1;
+            local.clear();
+            int first = node;
+            for (Symbol s : definition.symbols.values()) {
+                if (s.type == SymbolType.DEFINITION) {
+                    continue;
+                }
+                local.put(s.ident.name, node);
+                packed.nodeName[node] = intern(s.ident.name, interned, names);
+                packed.callee[node] = -1;
+                if (s.type == SymbolType.INPUT) {
+                    packed.kind[node] = INPUT;
+                } else if (s.type == SymbolType.OUTPUT) {
+                    packed.kind[node] = OUTPUT;
+                    packed.output[d] = node;
+                } else if (s.type == SymbolType.CALL) {
+                    packed.kind[node] = CALL;
+                    packed.callee[node] = intern(((SymbolCall) s).functionType, interned, names);
+                } else if (s.type == SymbolType.VARIABLE) {
+                    packed.kind[node] = VARIABLE;
+                    packed.callee[node] = intern(((SymbolVariable) s).value.type, interned, names);
+                } else {
+                    throw new RuntimeException("Found node of type " + s.type);
+                }
+                node++;
+            }
+            // Sinks are only known once every node of the definition has a number
+            node = first;
+            for (Symbol s : definition.symbols.values()) {
+                if (s.type == SymbolType.DEFINITION) {
+                    continue;
+                }
+                packed.outStart[node] = edge;
+                for (int i = 0; i < s.references.size(); i++) {
+                    Integer sink = local.get(s.references.get(i));
+                    if (sink == null) {
+                        throw new RuntimeException("Unknown node " + s.references.get(i) + " in " + definition.ident.name);
+                    }
+                    packed.outSink[edge] = sink;
+                    packed.outInput[edge] = intern(s.referencesInputs.get(i), interned, names);
+                    edge++;
+                }
+                node++;
+            }
+        }
+        packed.inputStart[definitions] = input;
+        packed.nodeStart[definitions] = node;
+        packed.outStart[nodes] = edge;
+        packed.nameCount = names.size();
+        packed.nameStart = new int[names.size() + 1];
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < names.size(); i++) {
+            packed.nameStart[i] = bytes.size();
+            bytes.writeBytes(names.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+        packed.nameStart[names.size()] = bytes.size();
+        packed.nameBytes = bytes.toByteArray();
+        packed.buildFanIn();
+        return packed;
+    }
+
+    private static int intern(String name, HashMap<String, Integer> interned, List<String> names) {
+        Integer id = interned.get(name);
+        if (id == null) {
+            id = names.size();
+            interned.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+
+    /**
+     * Sorts the edges by sink, keeping them in source order for each sink.
+     */
+    private void buildFanIn() {
+        inStart = new int[nodeCount + 1];
+        inSource = new int[edgeCount];
+        inInput = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            inStart[outSink[e] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            inStart[n + 1] += inStart[n];
+        }
+        int[] next = Arrays.copyOf(inStart, nodeCount);
+        for (int n = 0; n < nodeCount; n++) {
+            for (int e = outStart[n]; e < outStart[n + 1]; e++) {
+                int slot = next[outSink[e]]++;
+                inSource[slot] = n;
+                inInput[slot] = outInput[e];
+            }
+        }
+    }
+
+    public String name(int id) {
+        return new String(nameBytes, nameStart[id], nameStart[id + 1] - nameStart[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The number of the name, or -1 if the program never uses it.
+     */
+    public int find(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int id = 0; id < nameCount; id++) {
+            if (Arrays.equals(nameBytes, nameStart[id], nameStart[id + 1], bytes, 0, bytes.length)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The definition with the given name, or -1.
+     */
+    public int definition(String name) {
+        for (int d = 0; d < definitionCount; d++) {
+            if (name(definitionName[d]).equals(name)) {
+                return d;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The source driving a sink input of a node, or -1 if nothing does.
+     */
+    public int driver(int node, int input) {
+        for (int e = inStart[node]; e < inStart[node + 1]; e++) {
+            if (inInput[e] == input) {
+                return inSource[e];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Roughly how many bytes the arrays take, names included.
+     */
+    public long arrayBytes() {
+        long ints = definitionName.length + inputStart.length + inputs.length + nodeStart.length + output.length
+            + nodeName.length + callee.length
+            + outStart.length + outSink.length + outInput.length
+            + inStart.length + inSource.length + inInput.length + nameStart.length;
+        return 4 * ints + kind.length + nameBytes.length;
+    }
+}
@@ -0,0 +1,259 @@
+package parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import parser.Parser.*;
+
+/**
+ * Single pass, byte level lexer. Reads the source through one reused buffer and
+ * splits tokens on whitespace, the same way the old Scanner based tokenizer did.
+ * Only identifiers are ever decoded to Strings, and each distinct identifier is
+ * decoded once and shared, so later symbol lookups compare names by identity.
+ * Tokens are produced on demand, so the parser can consume them as they are read.
+ */
+public class Lexer implements TokenStream, AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final TokenKeyword UNDERSCORE  = new TokenKeyword(TokenKind.UNDERSCORE);
+    private static final TokenKeyword EQUALS      = new TokenKeyword(TokenKind.EQUALS);
+    private static final TokenKeyword LET         = new TokenKeyword(TokenKind.LET);
+    private static final TokenKeyword IN          = new TokenKeyword(TokenKind.IN);
+    private static final TokenKeyword OPEN_BRACE  = new TokenKeyword(TokenKind.OPEN_BRACE);
+    private static final TokenKeyword CLOSE_BRACE = new TokenKeyword(TokenKind.CLOSE_BRACE);
+
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    private boolean eof;
+    private Token lookahead;
+    private long tokenCount;
+
+    // Open addressing intern table from identifier bytes to the shared String
+    private byte[][] internKeys;
+    private String[] internNames;
+    private int internSize;
+
+    public Lexer(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+        this.eof = false;
+        this.lookahead = null;
+        this.tokenCount = 0;
+        this.internKeys = new byte[256][];
+        this.internNames = new String[256];
+        this.internSize = 0;
+    }
+
+    public static Lexer open(String file) throws IOException {
+        return new Lexer(FileChannel.open(Paths.get(file), StandardOpenOption.READ));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return peekOrNull() != null;
+    }
+
+    @Override
+    public Token peek() {
+        Token token = peekOrNull();
+        if (token == null) {
+            throw new RuntimeException("Unexpected end of input");
+        }
+        return token;
+    }
+
+    @Override
+    public Token next() {
+        Token token = peek();
+        lookahead = null;
+        tokenCount++;
+        return token;
+    }
+
+    /**
+     * The number of tokens returned by next so far.
+     */
+    public long tokenCount() {
+        return tokenCount;
+    }
+
+    private Token peekOrNull() {
+        if (lookahead == null) {
+            try {
+                lookahead = read();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return lookahead;
+    }
+
+    /**
+     * Returns the next token, or null once the input is exhausted.
+     */
+    private Token read() throws IOException {
+        // skip whitespace
+        while (true) {
+            if (!buffer.hasRemaining() && !fill()) {
+                return null;
+            }
+            if (!isWhitespace(buffer.get(buffer.position()))) {
+                break;
+            }
+            buffer.position(buffer.position() + 1);
+        }
+
+        // find the end of the token, keeping it contiguous in the buffer
+        int start = buffer.position();
+        int end = start;
+        while (true) {
+            if (end == buffer.limit()) {
+                int offset = end - start;
+                buffer.position(start);
+                if (!fill()) {
+                    start = buffer.position();
+                    end = start + offset;
+                    break;
+                }
+                start = buffer.position();
+                end = start + offset;
+                continue;
+            }
+            if (isWhitespace(buffer.get(end))) {
+                break;
+            }
+            end++;
+        }
+        buffer.position(end);
+        return token(buffer.array(), buffer.arrayOffset() + start, end - start);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Moves any unread bytes to the front of the buffer and reads more after them,
+     * growing the buffer if a single token fills it. Returns false at end of input.
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+            bigger.put(buffer);
+            buffer = bigger;
+        } else {
+            buffer.compact();
+        }
+        int before = buffer.position();
+        int read = 0;
+        while (read == 0) {
+            read = channel.read(buffer);
+        }
+        buffer.flip();
+        if (read < 0) {
+            eof = true;
+        }
+        return buffer.limit() > before;
+    }
+
+    private Token token(byte[] bytes, int offset, int length) {
+        if (length == 1) {
+            switch (bytes[offset]) {
+                case '_': return UNDERSCORE;
+                case '=': return EQUALS;
+                case '(': return OPEN_BRACE;
+                case ')': return CLOSE_BRACE;
+                default: break;
+            }
+        } else if (length == 2 && bytes[offset] == 'i' && bytes[offset + 1] == 'n') {
+            return IN;
+        } else if (length == 3 && bytes[offset] == 'l' && bytes[offset + 1] == 'e' && bytes[offset + 2] == 't') {
+            return LET;
+        }
+
+        boolean number = true;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                number = false;
+                break;
+            }
+        }
+        if (number) {
+            int literal = 0;
+            for (int i = offset; i < offset + length; i++) {
+                int digit = bytes[i] - '0';
+                if (literal > (Integer.MAX_VALUE - digit) / 10) {
+                    throw new NumberFormatException("Literal out of range: "
+                            + new String(bytes, offset, length, StandardCharsets.UTF_8));
+                }
+                literal = literal * 10 + digit;
+            }
+            return new TokenLiteral(literal);
+        }
+        return new TokenIdentifier(intern(bytes, offset, length));
+    }
+
+    private String intern(byte[] bytes, int offset, int length) {
+        int mask = internKeys.length - 1;
+        int slot = hash(bytes, offset, length) & mask;
+        while (internKeys[slot] != null) {
+            byte[] key = internKeys[slot];
+            if (Arrays.equals(key, 0, key.length, bytes, offset, offset + length)) {
+                return internNames[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        String name = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        internKeys[slot] = Arrays.copyOfRange(bytes, offset, offset + length);
+        internNames[slot] = name;
+        internSize++;
+        if (internSize * 2 > internKeys.length) {
+            growInternTable();
+        }
+        return name;
+    }
+
+    private void growInternTable() {
+        byte[][] oldKeys = internKeys;
+        String[] oldNames = internNames;
+        internKeys = new byte[oldKeys.length * 2][];
+        internNames = new String[oldNames.length * 2];
+        int mask = internKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            byte[] key = oldKeys[i];
+            if (key == null) {
+                continue;
+            }
+            int slot = hash(key, 0, key.length) & mask;
+            while (internKeys[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            internKeys[slot] = key;
+            internNames[slot] = oldNames[i];
+        }
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+}
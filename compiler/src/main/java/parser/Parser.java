@@ -1,7 +1,5 @@
 package parser;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 
@@ -16,28 +14,28 @@ public class Parser {
     public static final String KW_CLOSE_BRACE  = ")";
 
     public static Program parse(List<Token> tokens) {
+        return parse(new ListTokenStream(tokens));
+    }
+
+    public static Program parse(TokenStream iter) {
         List<Definition> definitions = new ArrayList<>();
-        ListIterator<Token> iter = tokens.listIterator();
         while (iter.hasNext()) {
             definitions.add(parseDefinition(iter));
         }
         return new Program(definitions);
     }
 
-    private static Token peek(ListIterator<Token> iter) {
-        Token token = iter.next();
-        iter.previous();
-        return token;
-    }
-
-    private static Definition parseDefinition(ListIterator<Token> iter) {
+    /**
+     * Parses a single definition, consuming only the tokens that belong to it.
+     */
+    public static Definition parseDefinition(TokenStream iter) {
         Token token = iter.next();
         if (token.getKind() != TokenKind.IDENT) {
             throw new RuntimeException("Expected Identifier");
         }
         Identifier ident = new Identifier(((TokenIdentifier) token).getName());
         List<Pattern> patterns = new ArrayList<>();
-        while (peek(iter).getKind() != TokenKind.EQUALS) {
+        while (iter.peek().getKind() != TokenKind.EQUALS) {
             patterns.add(parsePattern(iter));
         }
         if (iter.next().getKind() != TokenKind.EQUALS) {
@@ -47,7 +45,7 @@ public class Parser {
         return new Definition(ident, patterns, e);
     }
 
-    private static Pattern parsePattern(ListIterator<Token> iter) {
+    private static Pattern parsePattern(TokenStream iter) {
         Token token = iter.next();
         if (token.getKind() == TokenKind.UNDERSCORE) {
             return new PatternUnderscore();
@@ -60,33 +58,73 @@ public class Parser {
         }
     }
 
-    private static Expression parseExpression(ListIterator<Token> iter) {
-        Token token = iter.next();
-        if (token.getKind() == TokenKind.LITERAL) {
-            return new ExpressionLiteral(((TokenLiteral) token).getLiteral());
-        } else if (token.getKind() == TokenKind.LET) {
-            return parseExpressionLet(iter);
-        } else if (token.getKind() == TokenKind.IDENT) {
-            Identifier ident = new Identifier(((TokenIdentifier) token).getName());
-            if (iter.hasNext() && peek(iter).getKind() == TokenKind.OPEN_BRACE) {
-                iter.next(); // skip open_brace
-                Token test = peek(iter);
-                List<Expression> expressions = new ArrayList<Expression>();
-                while (test.getKind() != TokenKind.CLOSE_BRACE) {
-                    expressions.add(parseExpression(iter));
-                    test = peek(iter);
+    /**
+     * Parses an expression without recursing. Lets and calls that are still waiting
+     * for expressions are kept on an explicit stack, so nesting depth is only
+     * limited by the heap.
+     */
+    private static Expression parseExpression(TokenStream iter) {
+        Deque<Frame> stack = new ArrayDeque<>();
+        while (true) {
+            Expression e;
+            Token token = iter.next();
+            if (token.getKind() == TokenKind.LITERAL) {
+                e = new ExpressionLiteral(((TokenLiteral) token).getLiteral());
+            } else if (token.getKind() == TokenKind.LET) {
+                stack.push(new Frame(Frame.LET_VALUE, parseBinding(iter)));
+                continue;
+            } else if (token.getKind() == TokenKind.IDENT) {
+                Identifier ident = new Identifier(((TokenIdentifier) token).getName());
+                if (iter.hasNext() && iter.peek().getKind() == TokenKind.OPEN_BRACE) {
+                    iter.next(); // skip open_brace
+                    if (iter.peek().getKind() != TokenKind.CLOSE_BRACE) {
+                        stack.push(new Frame(Frame.CALL, ident));
+                        continue;
+                    }
+                    iter.next(); // skip close_brace
+                    e = new ExpressionFunction(ident, new ArrayList<Expression>());
+                } else {
+                    // Hopefully just an ident
+                    e = new ExpressionIdentifier(ident);
                 }
-                iter.next(); // skip close_brace
-                return new ExpressionFunction(ident, expressions);
             } else {
-                // Hopefully just an ident
-                return new ExpressionIdentifier(ident);
+                throw new RuntimeException("Invalid expression");
             }
-        } 
-        throw new RuntimeException("Invalid expression");
+
+            // Hand the finished expression to whatever is waiting for it, until
+            // something needs another expression parsed
+            while (true) {
+                Frame frame = stack.peek();
+                if (frame == null) {
+                    return e;
+                } else if (frame.kind == Frame.LET_VALUE) {
+                    frame.assignment = new Assignment(frame.ident, e);
+                    token = iter.next();
+                    if (token.getKind() != TokenKind.IN) {
+                        throw new RuntimeException("Expected IN, got " + token);
+                    }
+                    frame.kind = Frame.LET_BODY;
+                    break;
+                } else if (frame.kind == Frame.LET_BODY) {
+                    stack.pop();
+                    e = new ExpressionLet(frame.assignment, e);
+                } else {
+                    frame.params.add(e);
+                    if (iter.peek().getKind() != TokenKind.CLOSE_BRACE) {
+                        break;
+                    }
+                    iter.next(); // skip close_brace
+                    stack.pop();
+                    e = new ExpressionFunction(frame.ident, frame.params);
+                }
+            }
+        }
     }
 
-    private static Assignment parseAssignment(ListIterator<Token> iter) {
+    /**
+     * Parses the start of an assignment, up to and including the equals sign.
+     */
+    private static Identifier parseBinding(TokenStream iter) {
         Token token = iter.next();
         if (token.kind != TokenKind.IDENT) {
             throw new RuntimeException("Expected IDENTIFER, got " + token.kind.name());
@@ -96,54 +134,70 @@ public class Parser {
         if (token.kind != TokenKind.EQUALS) {
             throw new RuntimeException("Expected EQUALS, got " + token.kind.name());
         }
-        Expression e = parseExpression(iter);
-        return new Assignment(i, e);
+        return i;
     }
 
-    private static ExpressionLet parseExpressionLet(ListIterator<Token> iter) {
-        Assignment assignment = parseAssignment(iter);
-        Token token = iter.next();
-        if (token.getKind() != TokenKind.IN) {
-            throw new RuntimeException("Expected IN, got " + token);
+    /**
+     * A let or call that is waiting for expressions to be parsed.
+     */
+    private static class Frame {
+        // Waiting for the expression bound by a let
+        public static final int LET_VALUE = 0;
+        // Waiting for the body of a let
+        public static final int LET_BODY = 1;
+        // Waiting for the next parameter of a call
+        public static final int CALL = 2;
+
+        public int kind;
+        public Identifier ident;
+        public Assignment assignment;
+        public List<Expression> params;
+
+        public Frame(int kind, Identifier ident) {
+            this.kind = kind;
+            this.ident = ident;
+            this.assignment = null;
+            this.params = kind == CALL ? new ArrayList<Expression>() : null;
         }
-        Expression e = parseExpression(iter);
-        return new ExpressionLet(assignment, e);
     }
 
     public static List<Token> tokenize(String file) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(file));
         List<Token> tokens = new ArrayList<Token>();
-        String line = reader.readLine();
-        while (line != null) {
-            Scanner scanner = new Scanner(line);
-            scanner.useDelimiter("(\\s+)");
-            while (scanner.hasNext()) {
-                String token = scanner.next();
-                if (token.equals(KW_UNDERSCORE)) {
-                    tokens.add(new TokenKeyword(TokenKind.UNDERSCORE));
-                } else if (token.equals(KW_EQUALS)) {
-                    tokens.add(new TokenKeyword(TokenKind.EQUALS));
-                } else if (token.equals(KW_LET)) {
-                    tokens.add(new TokenKeyword(TokenKind.LET));
-                } else if (token.equals(KW_IN)) {
-                    tokens.add(new TokenKeyword(TokenKind.IN));
-                } else if (token.equals(KW_OPEN_BRACE)) {
-                    tokens.add(new TokenKeyword(TokenKind.OPEN_BRACE));
-                } else if (token.equals(KW_CLOSE_BRACE)) {
-                    tokens.add(new TokenKeyword(TokenKind.CLOSE_BRACE));
-                } else if (token.matches("^\\d+$")) { // Is number
-                    tokens.add(new TokenLiteral(Integer.parseInt(token)));
-                } else { // Identifier
-                    tokens.add(new TokenIdentifier(token));
-                }
+        try (Lexer lexer = Lexer.open(file)) {
+            while (lexer.hasNext()) {
+                tokens.add(lexer.next());
             }
-            scanner.close();
-            line = reader.readLine();
         }
-        reader.close();
         return tokens;
     }
 
+    public static class ListTokenStream implements TokenStream {
+        private List<Token> tokens;
+        private int index;
+
+        public ListTokenStream(List<Token> tokens) {
+            this.tokens = tokens;
+            this.index = 0;
+        }
+
+        public boolean hasNext() {
+            return index < tokens.size();
+        }
+
+        public Token peek() {
+            if (!hasNext()) {
+                throw new RuntimeException("Unexpected end of input");
+            }
+            return tokens.get(index);
+        }
+
+        public Token next() {
+            Token token = peek();
+            index++;
+            return token;
+        }
+    }
+
     public static class Token {
         protected TokenKind kind;
 
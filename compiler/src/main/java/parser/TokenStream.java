@@ -0,0 +1,23 @@
+package parser;
+
+import parser.Parser.Token;
+
+/**
+ * Pull based source of tokens with a single token of lookahead.
+ */
+public interface TokenStream {
+    /**
+     * Returns true if there is at least one more token.
+     */
+    boolean hasNext();
+
+    /**
+     * Returns the next token without consuming it.
+     */
+    Token peek();
+
+    /**
+     * Consumes and returns the next token.
+     */
+    Token next();
+}
@@ -0,0 +1,103 @@
+package sim;
+
+import java.util.*;
+
+import flatten.Netlist;
+
+/**
+ * Evaluates a flattened netlist on 64 input vectors at once. Every net holds a
+ * long, and bit j of each word belongs to vector j.
+ */
+public class BitSimulator {
+    // Bit j of PATTERNS[i] is bit i of j, which enumerates the first six inputs
+    private static final long[] PATTERNS = {
+        0xAAAAAAAAAAAAAAAAL,
+        0xCCCCCCCCCCCCCCCCL,
+        0xF0F0F0F0F0F0F0F0L,
+        0xFF00FF00FF00FF00L,
+        0xFFFF0000FFFF0000L,
+        0xFFFFFFFF00000000L,
+    };
+
+    protected Netlist netlist;
+    protected long[] values;
+
+    public BitSimulator(Netlist netlist) {
+        this.netlist = netlist;
+        this.values = new long[netlist.netCount()];
+        this.values[Netlist.TRUE] = -1L;
+    }
+
+    public Netlist getNetlist() {
+        return netlist;
+    }
+
+    /**
+     * Evaluates 64 vectors, one word per input, and returns the output word.
+     */
+    public long eval(long... inputs) {
+        if (inputs.length != netlist.inputs.size()) {
+            throw new RuntimeException("Expected " + netlist.inputs.size() + " inputs, got " + inputs.length);
+        }
+        long[] values = this.values;
+        System.arraycopy(inputs, 0, values, 2, inputs.length);
+        int[] left = netlist.left;
+        int[] right = netlist.right;
+        int net = netlist.firstGate();
+        for (int g = 0; g < netlist.gateCount; g++, net++) {
+            values[net] = ~(values[left[g]] & values[right[g]]);
+        }
+        return values[netlist.output];
+    }
+
+    /**
+     * Evaluates every input combination. Bit v of the result (word v / 64) is the
+     * output for the vector whose input i is bit i of v.
+     */
+    public long[] truthTable() {
+        int n = netlist.inputs.size();
+        if (n > 30) {
+            throw new RuntimeException("Too many inputs for a truth table: " + n);
+        }
+        long rows = 1L << n;
+        long[] table = new long[(int) Math.max(1, rows >>> 6)];
+        long[] inputs = new long[n];
+        for (int w = 0; w < table.length; w++) {
+            for (int i = 0; i < n; i++) {
+                inputs[i] = exhaustive(i, w);
+            }
+            table[w] = eval(inputs);
+        }
+        if (rows < 64) {
+            table[0] &= (1L << rows) - 1;
+        }
+        return table;
+    }
+
+    /**
+     * Evaluates count random vectors and returns the output words. The last word
+     * may hold fewer than 64 vectors.
+     */
+    public long[] random(long count, long seed) {
+        Random random = new Random(seed);
+        long[] outputs = new long[(int) ((count + 63) >>> 6)];
+        long[] inputs = new long[netlist.inputs.size()];
+        for (int w = 0; w < outputs.length; w++) {
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = random.nextLong();
+            }
+            outputs[w] = eval(inputs);
+        }
+        return outputs;
+    }
+
+    /**
+     * The word for input i in batch w when enumerating every combination.
+     */
+    public static long exhaustive(int input, long word) {
+        if (input < PATTERNS.length) {
+            return PATTERNS[input];
+        }
+        return ((word >>> (input - PATTERNS.length)) & 1) == 0 ? 0L : -1L;
+    }
+}
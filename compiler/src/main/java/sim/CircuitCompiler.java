@@ -0,0 +1,439 @@
+package sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import checker.Checker.CheckedProgram;
+import flatten.Flattener;
+import flatten.Netlist;
+import optimise.Optimiser;
+
+/**
+ * Compiles flattened netlists into hidden classes whose eval method is a straight
+ * line of {@code ~(a & b)} operations, so the JIT can turn a circuit into plain
+ * machine code.
+ *
+ * Small circuits keep every net in a local variable. Larger ones would overflow
+ * the 64K limit on a method's bytecode, so their gates are split into chunks, each
+ * its own class, that share a scratch array allocated per call.
+ */
+public class CircuitCompiler {
+    // Gates that fit in a single method with every net in a local
+    private static final int LOCALS_LIMIT = 3000;
+    // Gates per chunk class when nets live in an array
+    private static final int CHUNK_SIZE = 2500;
+
+    private Flattener flattener;
+    private ConcurrentHashMap<String, CompiledCircuit> cache;
+
+    public CircuitCompiler(CheckedProgram p) {
+        this.flattener = new Flattener(p);
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the compiled circuit for a definition, flattening, optimising and
+     * compiling it the first time it is asked for.
+     */
+    public CompiledCircuit get(String definition) {
+        CompiledCircuit circuit = cache.get(definition);
+        if (circuit == null) {
+            Netlist netlist;
+            synchronized (flattener) {
+                netlist = flattener.flatten(definition);
+            }
+            circuit = cache.computeIfAbsent(definition, k -> compile(Optimiser.optimise(netlist)));
+        }
+        return circuit;
+    }
+
+    public static CompiledCircuit compile(Netlist netlist) {
+        if (netlist.gateCount + netlist.inputs.size() <= LOCALS_LIMIT) {
+            return new LocalsCircuit(netlist, (CompiledCircuit) load(compileLocals(netlist), netlist.name));
+        }
+        int chunks = (netlist.gateCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        Chunk[] compiled = new Chunk[chunks];
+        for (int c = 0; c < chunks; c++) {
+            int from = c * CHUNK_SIZE;
+            int to = Math.min(netlist.gateCount, from + CHUNK_SIZE);
+            compiled[c] = (Chunk) load(compileChunk(netlist, from, to), netlist.name);
+        }
+        return new ChunkedCircuit(netlist, compiled);
+    }
+
+    private static Object load(byte[] bytes, String name) {
+        try {
+            Class<?> c = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Couldn't load compiled circuit " + name, e);
+        }
+    }
+
+    private static byte[] compileLocals(Netlist netlist) {
+        ClassFile cls = new ClassFile("sim/CompiledCircuit");
+        Code code = new Code(cls);
+        // slot 0 is this, slot 1 the inputs, then two slots per net from the first input
+        for (int i = 0; i < netlist.inputs.size(); i++) {
+            code.op(Code.ALOAD_1);
+            code.pushInt(i);
+            code.op(Code.LALOAD);
+            code.localStore(slot(netlist.input(i)));
+        }
+        int first = netlist.firstGate();
+        for (int g = 0; g < netlist.gateCount; g++) {
+            loadLocal(code, netlist.left[g]);
+            loadLocal(code, netlist.right[g]);
+            code.op(Code.LAND);
+            code.pushMinusOne();
+            code.op(Code.LXOR);
+            code.localStore(slot(first + g));
+        }
+        loadLocal(code, netlist.output);
+        code.op(Code.LRETURN);
+        cls.method(0x0001, "eval", "([J)J", code, 4, slot(netlist.netCount()));
+        return cls.toBytes();
+    }
+
+    private static int slot(int net) {
+        return 2 + 2 * (net - 2);
+    }
+
+    private static void loadLocal(Code code, int net) {
+        if (net == Netlist.FALSE) {
+            code.op(Code.LCONST_0);
+        } else if (net == Netlist.TRUE) {
+            code.pushMinusOne();
+        } else {
+            code.localLoad(slot(net));
+        }
+    }
+
+    private static byte[] compileChunk(Netlist netlist, int from, int to) {
+        ClassFile cls = new ClassFile("sim/CircuitCompiler$Chunk");
+        Code code = new Code(cls);
+        // slot 0 is this, slot 1 the values of every net
+        int first = netlist.firstGate();
+        for (int g = from; g < to; g++) {
+            code.op(Code.ALOAD_1);
+            code.pushInt(first + g);
+            code.op(Code.ALOAD_1);
+            code.pushInt(netlist.left[g]);
+            code.op(Code.LALOAD);
+            code.op(Code.ALOAD_1);
+            code.pushInt(netlist.right[g]);
+            code.op(Code.LALOAD);
+            code.op(Code.LAND);
+            code.pushMinusOne();
+            code.op(Code.LXOR);
+            code.op(Code.LASTORE);
+        }
+        code.op(Code.RETURN);
+        cls.method(0x0001, "run", "([J)V", code, 8, 2);
+        return cls.toBytes();
+    }
+
+    /**
+     * A run of gates compiled into its own class, reading and writing net values
+     * in a shared array. Each chunk has its own constant pool, so circuits of any
+     * size can be compiled.
+     */
+    public interface Chunk {
+        void run(long[] values);
+    }
+
+    /**
+     * Checks the inputs before handing them to the generated class, which reads
+     * them without looking at the length. Branching in there would need stack map
+     * frames.
+     */
+    private static class LocalsCircuit implements CompiledCircuit {
+        private int inputs;
+        private CompiledCircuit compiled;
+
+        public LocalsCircuit(Netlist netlist, CompiledCircuit compiled) {
+            this.inputs = netlist.inputs.size();
+            this.compiled = compiled;
+        }
+
+        public long eval(long... inputs) {
+            if (inputs.length != this.inputs) {
+                throw new RuntimeException("Expected " + this.inputs + " inputs, got " + inputs.length);
+            }
+            return compiled.eval(inputs);
+        }
+    }
+
+    private static class ChunkedCircuit implements CompiledCircuit {
+        private int inputs;
+        private int nets;
+        private int output;
+        private Chunk[] chunks;
+
+        public ChunkedCircuit(Netlist netlist, Chunk[] chunks) {
+            this.inputs = netlist.inputs.size();
+            this.nets = netlist.netCount();
+            this.output = netlist.output;
+            this.chunks = chunks;
+        }
+
+        public long eval(long... inputs) {
+            if (inputs.length != this.inputs) {
+                throw new RuntimeException("Expected " + this.inputs + " inputs, got " + inputs.length);
+            }
+            long[] values = new long[nets];
+            values[Netlist.TRUE] = -1L;
+            System.arraycopy(inputs, 0, values, 2, inputs.length);
+            for (Chunk chunk : chunks) {
+                chunk.run(values);
+            }
+            return values[output];
+        }
+    }
+
+    /**
+     * Just enough of the class file format for a final class implementing one
+     * interface, with a default constructor and straight line methods.
+     */
+    private static class ClassFile {
+        public static final String THIS = "sim/GeneratedCircuit";
+
+        private String implemented;
+
+        private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private DataOutputStream poolOut = new DataOutputStream(pool);
+        private int poolCount = 1;
+        private HashMap<String, Integer> poolEntries = new HashMap<>();
+        private ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        private DataOutputStream methodsOut = new DataOutputStream(methods);
+        private int methodCount = 0;
+
+        public ClassFile(String implemented) {
+            this.implemented = implemented;
+            Code init = new Code(this);
+            init.op(Code.ALOAD_0);
+            init.op(Code.INVOKESPECIAL);
+            init.u2(methodref("java/lang/Object", "<init>", "()V"));
+            init.op(Code.RETURN);
+            method(0x0001, "<init>", "()V", init, 1, 1);
+        }
+
+        public int utf8(String s) {
+            return entry("U" + s, out -> {
+                out.writeByte(1);
+                out.writeUTF(s);
+            }, 1);
+        }
+
+        public int integer(int value) {
+            return entry("I" + value, out -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            }, 1);
+        }
+
+        public int longConstant(long value) {
+            return entry("J" + value, out -> {
+                out.writeByte(5);
+                out.writeLong(value);
+            }, 2);
+        }
+
+        public int classRef(String name) {
+            int nameIndex = utf8(name);
+            return entry("C" + name, out -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            }, 1);
+        }
+
+        public int methodref(String owner, String name, String descriptor) {
+            int classIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + descriptor, out -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            }, 1);
+            return entry("M" + owner + "." + name + descriptor, out -> {
+                out.writeByte(10);
+                out.writeShort(classIndex);
+                out.writeShort(nameAndType);
+            }, 1);
+        }
+
+        public void method(int access, String name, String descriptor, Code code, int maxStack, int maxLocals) {
+            if (code.size() > 65535 || maxLocals > 65535) {
+                throw new RuntimeException("Method " + name + " is too large to compile");
+            }
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int codeIndex = utf8("Code");
+            try {
+                methodsOut.writeShort(access);
+                methodsOut.writeShort(nameIndex);
+                methodsOut.writeShort(descriptorIndex);
+                methodsOut.writeShort(1);
+                methodsOut.writeShort(codeIndex);
+                methodsOut.writeInt(12 + code.size());
+                methodsOut.writeShort(maxStack);
+                methodsOut.writeShort(maxLocals);
+                methodsOut.writeInt(code.size());
+                code.writeTo(methodsOut);
+                methodsOut.writeShort(0); // exception table
+                methodsOut.writeShort(0); // attributes
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            methodCount++;
+        }
+
+        public byte[] toBytes() {
+            int thisClass = classRef(THIS);
+            int superClass = classRef("java/lang/Object");
+            int circuit = classRef(implemented);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(52);
+                out.writeShort(poolCount);
+                pool.writeTo(out);
+                out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(circuit);
+                out.writeShort(0); // fields
+                out.writeShort(methodCount);
+                methods.writeTo(out);
+                out.writeShort(0); // attributes
+                out.flush();
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private interface Entry {
+            void write(DataOutputStream out) throws IOException;
+        }
+
+        private int entry(String key, Entry entry, int slots) {
+            Integer index = poolEntries.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                entry.write(poolOut);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            index = poolCount;
+            poolCount += slots;
+            if (poolCount > 65535) {
+                throw new RuntimeException("Too many constants to compile");
+            }
+            poolEntries.put(key, index);
+            return index;
+        }
+    }
+
+    private static class Code {
+        public static final int LCONST_0 = 0x09;
+        public static final int BIPUSH = 0x10;
+        public static final int SIPUSH = 0x11;
+        public static final int LDC_W = 0x13;
+        public static final int LDC2_W = 0x14;
+        public static final int LLOAD = 0x16;
+        public static final int ALOAD_0 = 0x2a;
+        public static final int ALOAD_1 = 0x2b;
+        public static final int LALOAD = 0x2f;
+        public static final int LSTORE = 0x37;
+        public static final int LASTORE = 0x50;
+        public static final int LAND = 0x7f;
+        public static final int LXOR = 0x83;
+        public static final int LRETURN = 0xad;
+        public static final int RETURN = 0xb1;
+        public static final int INVOKESPECIAL = 0xb7;
+        public static final int WIDE = 0xc4;
+
+        private ClassFile cls;
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int minusOne = -1;
+
+        public Code(ClassFile cls) {
+            this.cls = cls;
+        }
+
+        public void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        public void u1(int value) {
+            bytes.write(value);
+        }
+
+        public void u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+        }
+
+        public void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(0x03 + value); // iconst_m1 to iconst_5
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W);
+                u2(cls.integer(value));
+            }
+        }
+
+        public void pushMinusOne() {
+            if (minusOne < 0) {
+                minusOne = cls.longConstant(-1L);
+            }
+            op(LDC2_W);
+            u2(minusOne);
+        }
+
+        public void localLoad(int slot) {
+            local(LLOAD, slot);
+        }
+
+        public void localStore(int slot) {
+            local(LSTORE, slot);
+        }
+
+        private void local(int opcode, int slot) {
+            if (slot <= 255) {
+                op(opcode);
+                u1(slot);
+            } else {
+                op(WIDE);
+                op(opcode);
+                u2(slot);
+            }
+        }
+
+        public int size() {
+            return bytes.size();
+        }
+
+        public void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package sim;
+
+/**
+ * A netlist compiled to JVM bytecode by {@link CircuitCompiler}.
+ */
+public interface CompiledCircuit {
+    /**
+     * Evaluates 64 vectors, one word per input, and returns the output word. There
+     * must be exactly one word per input.
+     */
+    long eval(long... inputs);
+}
@@ -0,0 +1,366 @@
+package sim;
+
+import java.util.*;
+
+import checker.Checker.*;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Program.*;
+
+/**
+ * Event driven simulation of a checked definition, one bit per net. Unlike the
+ * flattener this keeps feedback loops, so sequential circuits like a latch can be
+ * simulated. Every nand has unit delay, and a step only evaluates the gates whose
+ * inputs changed in the step before.
+ */
+public class EventSimulator {
+    private static final int NONE = -1;
+
+    private String name;
+    private List<String> inputs;
+    private int output;
+    private int netCount;
+    // Per net, the nets read by the gate driving it, or NONE for constants and inputs
+    private int[] left;
+    private int[] right;
+    // Per net, the net it was bound to while elaborating, or NONE
+    private int[] alias;
+    // Gates reading net n are fanout[fanoutStart[n]] to fanout[fanoutStart[n + 1] - 1]
+    private int[] fanoutStart;
+    private int[] fanout;
+
+    private boolean[] values;
+    // Time wheel of pending gate evaluations. Gates have unit delay, so only the
+    // slots for this step and the next are ever in use
+    private int[][] wheel;
+    private int[] wheelSize;
+    private int[] scheduledAt;
+    private int[] changed;
+    private int time;
+    private long evaluations;
+
+    /**
+     * Elaborates the named definition down to nand gates. Every gate is scheduled
+     * once, so the first call to settle brings the circuit up from all zeros.
+     */
+    public EventSimulator(CheckedProgram p, String root) {
+        HashMap<String, CheckedDefinition> definitions = new HashMap<>();
+        for (CheckedDefinition d : p.definitions) {
+            definitions.put(d.ident.name, d);
+        }
+        CheckedDefinition d = definitions.get(root);
+        if (d == null) {
+            throw new RuntimeException("No definition named " + root);
+        }
+
+        this.name = root;
+        this.inputs = params(d);
+        this.left = new int[16];
+        this.right = new int[16];
+        this.alias = new int[16];
+        this.netCount = 0;
+        newNet();
+        newNet();
+        int[] args = new int[inputs.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = newNet();
+        }
+        this.output = elaborate(d, args, definitions, new HashSet<>());
+        resolve();
+
+        this.values = new boolean[netCount];
+        this.values[Netlist.TRUE] = true;
+        this.wheel = new int[][]{new int[16], new int[16]};
+        this.wheelSize = new int[2];
+        this.scheduledAt = new int[netCount];
+        Arrays.fill(scheduledAt, NONE);
+        this.changed = new int[netCount];
+        this.time = 0;
+        this.evaluations = 0;
+        for (int n = 0; n < netCount; n++) {
+            if (left[n] != NONE) {
+                schedule(n, 0);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getInputs() {
+        return inputs;
+    }
+
+    public int gateCount() {
+        int gates = 0;
+        for (int n = 0; n < netCount; n++) {
+            if (left[n] != NONE) {
+                gates++;
+            }
+        }
+        return gates;
+    }
+
+    /**
+     * The number of gate evaluations so far.
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * The number of steps simulated so far.
+     */
+    public int getTime() {
+        return time;
+    }
+
+    public boolean output() {
+        return values[output];
+    }
+
+    /**
+     * Sets an input. The gates reading it are evaluated on the next call to settle.
+     */
+    public void set(int input, boolean value) {
+        if (input < 0 || input >= inputs.size()) {
+            throw new RuntimeException("No input " + input + " in " + name);
+        }
+        int net = 2 + input;
+        if (values[net] != value) {
+            values[net] = value;
+            scheduleFanout(net, time);
+        }
+    }
+
+    public int settle() {
+        return settle(4 * netCount + 16);
+    }
+
+    /**
+     * Runs until no gate changes and returns the number of steps it took. Throws if
+     * the circuit is still changing after maxSteps, which means it oscillates.
+     */
+    public int settle(int maxSteps) {
+        int start = time;
+        while (wheelSize[time & 1] > 0) {
+            if (time - start >= maxSteps) {
+                throw new RuntimeException(name + " oscillates, still changing after " + maxSteps + " steps");
+            }
+            step();
+        }
+        return time - start;
+    }
+
+    private void step() {
+        int slot = time & 1;
+        int[] events = wheel[slot];
+        int count = wheelSize[slot];
+        wheelSize[slot] = 0;
+
+        // Evaluate everything first so gates in a step see the same values
+        int changes = 0;
+        for (int i = 0; i < count; i++) {
+            int g = events[i];
+            boolean value = !(values[left[g]] && values[right[g]]);
+            if (value != values[g]) {
+                changed[changes++] = g;
+            }
+        }
+        evaluations += count;
+        time++;
+        for (int i = 0; i < changes; i++) {
+            int g = changed[i];
+            values[g] = !values[g];
+            scheduleFanout(g, time);
+        }
+    }
+
+    private void scheduleFanout(int net, int at) {
+        for (int i = fanoutStart[net]; i < fanoutStart[net + 1]; i++) {
+            schedule(fanout[i], at);
+        }
+    }
+
+    private void schedule(int gate, int at) {
+        if (scheduledAt[gate] == at) {
+            return;
+        }
+        scheduledAt[gate] = at;
+        int slot = at & 1;
+        if (wheelSize[slot] == wheel[slot].length) {
+            wheel[slot] = Arrays.copyOf(wheel[slot], wheel[slot].length * 2);
+        }
+        wheel[slot][wheelSize[slot]++] = gate;
+    }
+
+    private static List<String> params(CheckedDefinition d) {
+        List<String> params = new ArrayList<>();
+        for (Pattern p : d.patterns) {
+            params.add(((PatternIdentifier) p).ident.name);
+        }
+        return params;
+    }
+
+    private int newNet() {
+        if (netCount == left.length) {
+            left = Arrays.copyOf(left, netCount * 2);
+            right = Arrays.copyOf(right, netCount * 2);
+            alias = Arrays.copyOf(alias, netCount * 2);
+        }
+        left[netCount] = NONE;
+        right[netCount] = NONE;
+        alias[netCount] = NONE;
+        return netCount++;
+    }
+
+    /**
+     * Gives every node of an instance a net before connecting any of them, so nodes
+     * can read each other in a loop. Calls and the output are bound to the net
+     * driving them and resolved once everything is elaborated.
+     */
+    private int elaborate(CheckedDefinition d, int[] args, HashMap<String, CheckedDefinition> definitions, HashSet<String> inProgress) {
+        String function = d.ident.name;
+        if (!inProgress.add(function)) {
+            throw new RuntimeException("Can't simulate recursive definition " + function);
+        }
+        List<String> params = params(d);
+
+        // sink -> sink input -> source
+        HashMap<String, Integer> nets = new HashMap<>();
+        HashMap<String, HashMap<String, String>> drivers = new HashMap<>();
+        List<Symbol> nodes = new ArrayList<>();
+        String outputName = null;
+        for (Symbol s : d.symbols.values()) {
+            if (s.type == SymbolType.DEFINITION) {
+                continue;
+            }
+            String name = s.ident.name;
+            if (s.type == SymbolType.INPUT) {
+                if (name.equals("0")) {
+                    nets.put(name, Netlist.FALSE);
+                } else if (name.equals("1")) {
+                    nets.put(name, Netlist.TRUE);
+                } else {
+                    nets.put(name, args[params.indexOf(name)]);
+                }
+            } else {
+                nets.put(name, newNet());
+                nodes.add(s);
+            }
+            if (s.type == SymbolType.OUTPUT) {
+                outputName = name;
+            }
+            for (int i = 0; i < s.references.size(); i++) {
+                HashMap<String, String> inputs = drivers.computeIfAbsent(s.references.get(i), k -> new HashMap<>());
+                if (inputs.put(s.referencesInputs.get(i), name) != null) {
+                    throw new RuntimeException("Multiple drivers for " + s.references.get(i) + " " + s.referencesInputs.get(i));
+                }
+            }
+        }
+
+        for (Symbol s : nodes) {
+            String name = s.ident.name;
+            int net = nets.get(name);
+            HashMap<String, String> inputs = drivers.getOrDefault(name, new HashMap<>());
+            if (s.type == SymbolType.OUTPUT) {
+                if (inputs.isEmpty()) {
+                    throw new RuntimeException("Nothing drives " + name);
+                }
+                alias[net] = net(nets, inputs.values().iterator().next(), function);
+                continue;
+            }
+
+            String callee;
+            if (s.type == SymbolType.CALL) {
+                callee = ((SymbolCall) s).functionType;
+            } else if (s.type == SymbolType.VARIABLE) {
+                callee = ((SymbolVariable) s).value.type;
+            } else {
+                throw new RuntimeException("Found node of type " + s.type);
+            }
+
+            if (callee.equals(Flattener.NAND)) {
+                left[net] = arg(inputs, "x", nets, function);
+                right[net] = arg(inputs, "y", nets, function);
+                continue;
+            }
+            CheckedDefinition c = definitions.get(callee);
+            if (c == null) {
+                throw new RuntimeException("Can't simulate " + name + ", " + callee + " is not a definition");
+            }
+            List<String> calleeParams = params(c);
+            int[] calleeArgs = new int[calleeParams.size()];
+            for (int i = 0; i < calleeArgs.length; i++) {
+                calleeArgs[i] = arg(inputs, calleeParams.get(i), nets, function);
+            }
+            // Elaborating can grow the net arrays, so only index them afterwards
+            int calleeOutput = elaborate(c, calleeArgs, definitions, inProgress);
+            alias[net] = calleeOutput;
+        }
+
+        inProgress.remove(function);
+        return nets.get(outputName);
+    }
+
+    private static int arg(HashMap<String, String> inputs, String param, HashMap<String, Integer> nets, String function) {
+        String source = inputs.get(param);
+        return source == null ? Netlist.FALSE : net(nets, source, function);
+    }
+
+    private static int net(HashMap<String, Integer> nets, String source, String function) {
+        Integer net = nets.get(source);
+        if (net == null) {
+            throw new RuntimeException("Unknown node " + source + " in " + function);
+        }
+        return net;
+    }
+
+    /**
+     * Replaces bound nets with the nets driving them and builds the fanout lists.
+     */
+    private void resolve() {
+        for (int n = 0; n < netCount; n++) {
+            if (left[n] != NONE) {
+                left[n] = find(left[n]);
+                right[n] = find(right[n]);
+            }
+        }
+        output = find(output);
+
+        fanoutStart = new int[netCount + 1];
+        for (int n = 0; n < netCount; n++) {
+            if (left[n] != NONE) {
+                fanoutStart[left[n] + 1]++;
+                if (right[n] != left[n]) {
+                    fanoutStart[right[n] + 1]++;
+                }
+            }
+        }
+        for (int n = 0; n < netCount; n++) {
+            fanoutStart[n + 1] += fanoutStart[n];
+        }
+        fanout = new int[fanoutStart[netCount]];
+        int[] next = Arrays.copyOf(fanoutStart, netCount);
+        for (int n = 0; n < netCount; n++) {
+            if (left[n] != NONE) {
+                fanout[next[left[n]]++] = n;
+                if (right[n] != left[n]) {
+                    fanout[next[right[n]]++] = n;
+                }
+            }
+        }
+    }
+
+    private int find(int net) {
+        int steps = 0;
+        while (alias[net] != NONE) {
+            net = alias[net];
+            if (++steps > netCount) {
+                throw new RuntimeException("Can't simulate " + name + ", a loop doesn't pass through any gates");
+            }
+        }
+        return net;
+    }
+}
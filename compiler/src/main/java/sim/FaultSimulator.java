@@ -0,0 +1,172 @@
+package sim;
+
+import java.util.*;
+
+import flatten.Netlist;
+
+/**
+ * Grades test vectors by simulating single stuck-at faults on every input and gate
+ * of a netlist. Bit 0 of each word is the good machine and bits 1 to 63 are faulty
+ * machines, each with one fault forced onto its net, so one pass over the gates
+ * tries 63 faults on one vector. A fault is detected when its machine's output
+ * differs from the good one, and it's dropped from later vectors.
+ */
+public class FaultSimulator {
+    private static final int MACHINES = 63;
+
+    public static class Report {
+        public String name;
+        public int faults;
+        public int detected;
+        public int vectors;
+        // In the form "x stuck-at-0" or "gate 3 stuck-at-1"
+        public List<String> undetected;
+
+        public double coverage() {
+            return faults == 0 ? 1.0 : (double) detected / faults;
+        }
+
+        public String toString() {
+            return String.format("%s: %d of %d faults detected (%.1f%%) by %d vectors", name, detected, faults, 100 * coverage(), vectors);
+        }
+    }
+
+    private Netlist netlist;
+    private long[] values;
+
+    public FaultSimulator(Netlist netlist) {
+        this.netlist = netlist;
+        this.values = new long[netlist.netCount()];
+        this.values[Netlist.TRUE] = -1L;
+    }
+
+    /**
+     * Runs the vectors in order until every fault is detected. Vector v sets input i
+     * to vectors[v][i].
+     */
+    public Report simulate(boolean[][] vectors) {
+        // Fault f is net f / 2 stuck at f % 2, on every net but the constants
+        int first = netlist.input(0);
+        int[] remaining = new int[2 * (netlist.netCount() - first)];
+        for (int f = 0; f < remaining.length; f++) {
+            remaining[f] = 2 * first + f;
+        }
+        int count = remaining.length;
+
+        Report report = new Report();
+        report.name = netlist.name;
+        report.faults = count;
+        for (boolean[] vector : vectors) {
+            if (count == 0) {
+                break;
+            }
+            if (vector.length != netlist.inputs.size()) {
+                throw new RuntimeException("Expected " + netlist.inputs.size() + " inputs, got " + vector.length);
+            }
+            report.vectors++;
+            int kept = 0;
+            for (int start = 0; start < count; start += MACHINES) {
+                int end = Math.min(start + MACHINES, count);
+                long detected = run(vector, remaining, start, end);
+                // Keep the undetected ones, still sorted by net
+                for (int f = start; f < end; f++) {
+                    if ((detected >>> (f - start + 1) & 1) == 0) {
+                        remaining[kept++] = remaining[f];
+                    }
+                }
+            }
+            count = kept;
+        }
+
+        report.detected = report.faults - count;
+        report.undetected = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            report.undetected.add(describe(remaining[f] / 2) + " stuck-at-" + (remaining[f] % 2));
+        }
+        return report;
+    }
+
+    /**
+     * Every input combination, for netlists small enough to enumerate.
+     */
+    public Report simulateExhaustive() {
+        int n = netlist.inputs.size();
+        if (n > 24) {
+            throw new RuntimeException("Too many inputs to enumerate: " + n);
+        }
+        boolean[][] vectors = new boolean[1 << n][n];
+        for (int v = 0; v < vectors.length; v++) {
+            for (int i = 0; i < n; i++) {
+                vectors[v][i] = ((v >>> i) & 1) != 0;
+            }
+        }
+        return simulate(vectors);
+    }
+
+    public Report simulateRandom(int count, long seed) {
+        Random random = new Random(seed);
+        boolean[][] vectors = new boolean[count][netlist.inputs.size()];
+        for (boolean[] vector : vectors) {
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = random.nextBoolean();
+            }
+        }
+        return simulate(vectors);
+    }
+
+    /**
+     * Simulates faults [start, end) on one vector, and returns a word with bit
+     * f - start + 1 set if fault f was detected.
+     */
+    private long run(boolean[] vector, int[] faults, int start, int end) {
+        // Merge the group into one pair of masks per net, in net order
+        int[] nets = new int[end - start];
+        long[] clear = new long[end - start];
+        long[] set = new long[end - start];
+        int injections = 0;
+        for (int f = start; f < end; f++) {
+            int net = faults[f] / 2;
+            long bit = 1L << (f - start + 1);
+            if (injections == 0 || nets[injections - 1] != net) {
+                nets[injections++] = net;
+            }
+            if (faults[f] % 2 == 0) {
+                clear[injections - 1] |= bit;
+            } else {
+                set[injections - 1] |= bit;
+            }
+        }
+
+        long[] values = this.values;
+        int next = 0;
+        int net = netlist.input(0);
+        for (int i = 0; i < vector.length; i++, net++) {
+            values[net] = vector[i] ? -1L : 0L;
+            if (next < injections && nets[next] == net) {
+                values[net] = (values[net] & ~clear[next]) | set[next];
+                next++;
+            }
+        }
+        int[] left = netlist.left;
+        int[] right = netlist.right;
+        for (int g = 0; g < netlist.gateCount; g++, net++) {
+            long value = ~(values[left[g]] & values[right[g]]);
+            if (next < injections && nets[next] == net) {
+                value = (value & ~clear[next]) | set[next];
+                next++;
+            }
+            values[net] = value;
+        }
+
+        long output = values[netlist.output];
+        long good = (output & 1) == 0 ? 0L : -1L;
+        return (output ^ good) & ~1L;
+    }
+
+    private String describe(int net) {
+        if (net < netlist.firstGate()) {
+            return netlist.inputs.get(net - netlist.input(0));
+        }
+        return "gate " + (net - netlist.firstGate());
+    }
+}
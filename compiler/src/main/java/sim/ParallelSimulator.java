@@ -0,0 +1,152 @@
+package sim;
+
+import java.util.*;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import flatten.Netlist;
+
+/**
+ * Evaluates a levelised netlist on several threads. Gates in one level only read
+ * earlier levels, so each wide level is cut into chunks that threads claim in any
+ * order, with a barrier before the next level. Runs of narrow levels aren't worth
+ * a barrier each and are evaluated by the calling thread alone.
+ *
+ * The calling thread takes part in every evaluation, and the others wait on the
+ * barrier in between, so close() must be called to let them go.
+ */
+public class ParallelSimulator extends BitSimulator implements AutoCloseable {
+    // Gates per chunk, 32KB of values
+    public static final int CHUNK_SIZE = 4096;
+    // Levels narrower than this are evaluated on one thread
+    public static final int MIN_PARALLEL = 4 * CHUNK_SIZE;
+
+    // Step s covers gates [steps[s], steps[s + 1]), and is split into chunks if parallel[s]
+    private int[] steps;
+    private boolean[] parallel;
+    private AtomicInteger[] claimed;
+
+    private Thread[] workers;
+    private CyclicBarrier barrier;
+    private volatile boolean closed;
+
+    public ParallelSimulator(Netlist netlist, int threads) {
+        super(netlist.levels == null ? netlist.levelise() : netlist);
+        schedule();
+        this.closed = false;
+        this.barrier = new CyclicBarrier(Math.max(1, threads));
+        this.workers = new Thread[Math.max(1, threads) - 1];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread(this::work, "hdml-sim-" + (t + 1));
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+    }
+
+    private void schedule() {
+        int[] levels = this.netlist.levels;
+        List<Integer> starts = new ArrayList<>();
+        List<Boolean> wide = new ArrayList<>();
+        for (int l = 1; l < levels.length; l++) {
+            boolean w = levels[l] - levels[l - 1] >= MIN_PARALLEL;
+            // Narrow levels join the run before them if that was narrow too
+            if (w || wide.isEmpty() || wide.get(wide.size() - 1)) {
+                starts.add(levels[l - 1]);
+                wide.add(w);
+            }
+        }
+        steps = new int[starts.size() + 1];
+        parallel = new boolean[starts.size()];
+        claimed = new AtomicInteger[starts.size()];
+        for (int s = 0; s < parallel.length; s++) {
+            steps[s] = starts.get(s);
+            parallel[s] = wide.get(s);
+            claimed[s] = new AtomicInteger();
+        }
+        steps[parallel.length] = netlist.gateCount;
+    }
+
+    @Override
+    public long eval(long... inputs) {
+        if (inputs.length != netlist.inputs.size()) {
+            throw new RuntimeException("Expected " + netlist.inputs.size() + " inputs, got " + inputs.length);
+        }
+        if (closed) {
+            throw new RuntimeException("Simulator for " + netlist.name + " is closed");
+        }
+        System.arraycopy(inputs, 0, values, 2, inputs.length);
+        for (AtomicInteger c : claimed) {
+            c.set(0);
+        }
+        // Let the workers start, then every step ends on the barrier
+        await();
+        run(true);
+        return values[netlist.output];
+    }
+
+    private void work() {
+        while (true) {
+            await();
+            if (closed) {
+                return;
+            }
+            run(false);
+        }
+    }
+
+    private void run(boolean caller) {
+        for (int s = 0; s < parallel.length; s++) {
+            if (parallel[s]) {
+                int chunks = (steps[s + 1] - steps[s] + CHUNK_SIZE - 1) / CHUNK_SIZE;
+                int c;
+                while ((c = claimed[s].getAndIncrement()) < chunks) {
+                    int from = steps[s] + c * CHUNK_SIZE;
+                    evaluate(from, Math.min(from + CHUNK_SIZE, steps[s + 1]));
+                }
+            } else if (caller) {
+                evaluate(steps[s], steps[s + 1]);
+            }
+            await();
+        }
+    }
+
+    private void evaluate(int from, int to) {
+        long[] values = this.values;
+        int[] left = netlist.left;
+        int[] right = netlist.right;
+        int net = netlist.firstGate() + from;
+        for (int g = from; g < to; g++, net++) {
+            values[net] = ~(values[left[g]] & values[right[g]]);
+        }
+    }
+
+    private void await() {
+        try {
+            barrier.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while simulating " + netlist.name);
+        } catch (BrokenBarrierException e) {
+            throw new RuntimeException("Simulation of " + netlist.name + " was abandoned");
+        }
+    }
+
+    public int threadCount() {
+        return workers.length + 1;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (workers.length > 0) {
+            await();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package testAiger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.*;
+import aiger.Aiger;
+import checker.Checker;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Lexer;
+import parser.Parser;
+import sim.BitSimulator;
+
+public class TestAiger {
+
+    // The half adder from the AIGER format description, with the inputs swapped to
+    // check ASCII files don't have to number them in order
+    private static final String HALF_ADDER =
+        "aag 7 2 0 2 3\n" +
+        "4\n" +
+        "2\n" +
+        "6\n" +
+        "12\n" +
+        "6 13 15\n" +
+        "12 2 4\n" +
+        "14 3 5\n" +
+        "i0 y\n" +
+        "i1 x\n" +
+        "o0 s\n" +
+        "o1 c\n" +
+        "c\n" +
+        "half adder\n";
+
+    private static Aiger read(String text) throws IOException {
+        return Aiger.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static Aiger read(byte[] bytes) throws IOException {
+        return Aiger.read(new ByteArrayInputStream(bytes));
+    }
+
+    private static long[] truthTable(Netlist netlist) {
+        return new BitSimulator(netlist).truthTable();
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        Aiger aiger = read(HALF_ADDER);
+        Assert.assertEquals(Arrays.asList("y", "x"), aiger.inputs);
+        List<Netlist> netlists = aiger.toNetlists();
+        Assert.assertEquals("s", netlists.get(0).name);
+        Assert.assertEquals(0b0110, truthTable(netlists.get(0))[0]);
+        Assert.assertEquals(0b1000, truthTable(netlists.get(1))[0]);
+        // c only needs the nand of x and y and a not
+        Assert.assertEquals(2, netlists.get(1).gateCount);
+    }
+
+    @Test
+    public void testProgram() throws IOException {
+        Flattener flattener = new Flattener(Checker.check(read(HALF_ADDER).toProgram()));
+        Assert.assertEquals(0b0110, truthTable(flattener.flatten("s"))[0]);
+        Assert.assertEquals(0b1000, truthTable(flattener.flatten("c"))[0]);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Netlist xor;
+        try (Lexer lexer = Lexer.open("src/test/resources/xor")) {
+            xor = new Flattener(Checker.check(Parser.parse(lexer))).flatten("xor");
+        }
+        for (boolean binary : new boolean[]{false, true}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Aiger.write(Arrays.asList(xor, xor), out, binary);
+            Aiger aiger = read(out.toByteArray());
+            Assert.assertEquals(xor.inputs, aiger.inputs);
+            // Both outputs share the same and nodes, and nots are free
+            Assert.assertEquals(3, aiger.lhs.length);
+            for (Netlist netlist : aiger.toNetlists()) {
+                Assert.assertArrayEquals(truthTable(xor), truthTable(netlist));
+            }
+        }
+    }
+
+    @Test
+    public void testLoop() throws IOException {
+        try {
+            read("aag 3 1 0 1 2\n2\n6\n4 2 6\n6 2 4\n").toNetlists();
+            Assert.fail("Expected a loop");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains("loop"));
+        }
+    }
+}
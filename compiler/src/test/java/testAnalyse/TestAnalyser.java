@@ -0,0 +1,50 @@
+package testAnalyse;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.*;
+import analyse.Analyser;
+import analyse.Analyser.Profile;
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Lexer;
+import parser.Parser;
+
+public class TestAnalyser {
+
+    private CheckedProgram check(String file) throws IOException {
+        try (Lexer lexer = Lexer.open(file)) {
+            return Checker.check(Parser.parse(lexer));
+        }
+    }
+
+    @Test
+    public void testMatchesFlattened() throws IOException {
+        CheckedProgram checked = check("src/test/resources/xor");
+        Flattener flattener = new Flattener(checked);
+        for (Profile profile : Analyser.analyse(checked)) {
+            Netlist netlist = flattener.flatten(profile.name);
+            Assert.assertEquals(netlist.gateCount, profile.gates);
+            Assert.assertEquals(netlist.depth(), profile.criticalPath);
+            Assert.assertFalse(profile.feedback);
+        }
+    }
+
+    @Test
+    public void testLatch() throws IOException {
+        List<Profile> profiles = Analyser.analyse(check("src/test/resources/latch"));
+        Profile or = profiles.get(2);
+        Assert.assertEquals("or", or.name);
+        Assert.assertArrayEquals(new int[]{2, 2}, or.depth);
+        Assert.assertEquals(3, or.gates);
+
+        Profile latch = profiles.get(4);
+        Assert.assertTrue(latch.feedback);
+        Assert.assertEquals(-1, latch.criticalPath);
+        Assert.assertEquals(8, latch.gates);
+        Assert.assertEquals(2, latch.maxFanOut);
+    }
+}
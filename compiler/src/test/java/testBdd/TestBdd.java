@@ -0,0 +1,94 @@
+package testBdd;
+
+import java.math.BigInteger;
+
+import org.junit.*;
+import bdd.Bdd;
+import bdd.BddBuilder;
+import checker.Checker.CheckedProgram;
+import flatten.Flattener;
+import flatten.Netlist;
+import optimise.Optimiser;
+import testUtil.Programs;
+
+public class TestBdd {
+    private static final int WIDTH = 64;
+
+    private static String params(int from, int to) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            builder.append(" a").append(i);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parity of 64 inputs as a balanced tree, as a chain, and as a chain with one xor
+     * swapped for an or.
+     */
+    private static String parity() {
+        StringBuilder source = new StringBuilder();
+        source.append("or x y = nand ( nand ( x x ) nand ( y y ) )\n");
+        source.append("xor1 a0 = a0\n");
+        source.append("xor2 a0 a1 = nand ( nand ( a0 nand ( a0 a1 ) ) nand ( a1 nand ( a0 a1 ) ) )\n");
+        for (int n = 4; n <= WIDTH; n *= 2) {
+            source.append("xor").append(n).append(params(0, n)).append(" = xor2 ( xor").append(n / 2)
+                .append(" (").append(params(0, n / 2)).append(" ) xor").append(n / 2)
+                .append(" (").append(params(n / 2, n)).append(" ) )\n");
+        }
+        for (String name : new String[]{"chain", "wrong"}) {
+            source.append(name).append(params(0, WIDTH)).append(" = ");
+            for (int i = WIDTH - 1; i > 0; i--) {
+                source.append(name.equals("wrong") && i == WIDTH / 2 ? "or ( a" : "xor2 ( a").append(i).append(' ');
+            }
+            source.append("a0");
+            for (int i = 1; i < WIDTH; i++) {
+                source.append(" )");
+            }
+            source.append('\n');
+        }
+        return source.toString();
+    }
+
+    @Test
+    public void testWideEquivalence() {
+        // A tiny table, so building collects and grows many times
+        BddBuilder builder = new BddBuilder(Programs.check(parity()), new Bdd(16, 16));
+        Assert.assertNull(builder.difference("xor" + WIDTH, "chain"));
+        Assert.assertEquals(BigInteger.ONE.shiftLeft(WIDTH - 1), builder.bdd.satCount(builder.build("chain"), WIDTH));
+
+        boolean[] difference = builder.difference("chain", "wrong");
+        Assert.assertNotNull(difference);
+        Assert.assertEquals(WIDTH, difference.length);
+        // Only the top half feeding an or that sees two ones can tell them apart
+        Assert.assertTrue(difference[WIDTH / 2]);
+    }
+
+    @Test
+    public void testOptimisedNetlist() {
+        CheckedProgram checked = Programs.check(parity());
+        Netlist netlist = new Flattener(checked).flatten("xor" + WIDTH);
+        Netlist optimised = Optimiser.optimise(netlist);
+        Assert.assertNull(BddBuilder.difference(netlist, optimised));
+
+        Bdd bdd = new Bdd();
+        int f = BddBuilder.build(bdd, optimised);
+        Assert.assertEquals(new BddBuilder(checked, bdd).build("chain"), f);
+        Assert.assertNotNull(BddBuilder.difference(netlist, new Flattener(checked).flatten("wrong")));
+    }
+
+    @Test
+    public void testCollect() {
+        Bdd bdd = new Bdd();
+        int kept = bdd.ref(bdd.and(bdd.variable(0), bdd.variable(1)));
+        for (int i = 2; i < 40; i++) {
+            bdd.xor(bdd.variable(i), bdd.variable(i - 1));
+        }
+        bdd.gc();
+        // Both terminals, and the and of two variables
+        Assert.assertEquals(4, bdd.nodeCount());
+        Assert.assertEquals(kept, bdd.and(bdd.variable(1), bdd.variable(0)));
+        Assert.assertEquals(BigInteger.ONE.shiftLeft(38), bdd.satCount(kept));
+        Assert.assertEquals(Bdd.TRUE, bdd.or(kept, bdd.not(kept)));
+    }
+}
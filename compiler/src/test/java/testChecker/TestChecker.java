@@ -0,0 +1,205 @@
+package testChecker;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import codegen.Codegen;
+import parser.Lexer;
+import parser.Parser;
+import parser.Program;
+import testUtil.Programs;
+
+public class TestChecker {
+
+    private Program parse(String filename) throws IOException {
+        try (Lexer lexer = Lexer.open(filename)) {
+            return Parser.parse(lexer);
+        }
+    }
+
+    private String gen(CheckedProgram program) throws IOException {
+        StringWriter out = new StringWriter();
+        Codegen.gen(program, new BufferedWriter(out));
+        return out.toString();
+    }
+
+    private Program letChain(int lets) {
+        // v0 is an input, so every let has a real node on both sides
+        StringBuilder builder = new StringBuilder("chain v0 x =\n");
+        for (int i = 0; i < lets; i++) {
+            builder.append("    let v").append(i + 1).append(" = nand ( v").append(i).append(" x ) in\n");
+        }
+        builder.append("    v").append(lets).append("\n");
+        return Programs.parse(builder.toString());
+    }
+
+    private long timeCheck(int lets) {
+        Program program = letChain(lets);
+        long start = System.nanoTime();
+        Checker.check(program);
+        return System.nanoTime() - start;
+    }
+
+    private void runWithLargeStack(Runnable r) throws InterruptedException {
+        runWithStack(r, 1L << 28);
+    }
+
+    private void runWithStack(Runnable r, long stackSize) throws InterruptedException {
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                r.run();
+            } catch (Throwable t) {
+                failure[0] = t;
+            }
+        }, "checker-stack", stackSize);
+        thread.start();
+        thread.join();
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+    }
+
+    /**
+     * Checking a chain of lets should cost linear time in the number of lets.
+     * Quadratic behaviour would make the larger run 64 times slower.
+     */
+    @Test
+    public void testLetScaling() throws InterruptedException {
+        runWithLargeStack(() -> {
+            int small = 5000;
+            int large = small * 8;
+            // warm up
+            for (int i = 0; i < 3; i++) {
+                timeCheck(small);
+            }
+            long smallTime = Long.MAX_VALUE, largeTime = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i++) {
+                smallTime = Math.min(smallTime, timeCheck(small));
+                largeTime = Math.min(largeTime, timeCheck(large));
+            }
+            Assert.assertTrue("checking " + large + " lets took " + largeTime + "ns vs "
+                    + smallTime + "ns for " + small, largeTime < smallTime * 24);
+        });
+    }
+
+    /**
+     * Parsing and checking don't recurse, so deep nesting fits in a small stack.
+     */
+    @Test
+    public void testDeepNesting() throws InterruptedException {
+        runWithStack(() -> {
+            int depth = 200000;
+            Program lets = letChain(depth);
+            // 0, 1, v0, x and the output, plus one variable per let
+            Assert.assertEquals(depth + 5, Checker.check(lets).definitions.get(0).symbols.values().size());
+
+            StringBuilder builder = new StringBuilder("deep x = ");
+            for (int i = 0; i < depth; i++) {
+                builder.append("nand ( ");
+            }
+            builder.append("x");
+            for (int i = 0; i < depth; i++) {
+                builder.append(" x )");
+            }
+            Program calls = Programs.parse(builder.append("\n").toString());
+            // 0, 1, x and the output, plus one node per call
+            Assert.assertEquals(depth + 4, Checker.check(calls).definitions.get(0).symbols.values().size());
+        }, 1L << 18);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        Program program = parse("src/test/resources/latch");
+        Assert.assertEquals(gen(Checker.check(program)), gen(Checker.checkParallel(program)));
+    }
+
+    /**
+     * Far more definitions than one parallel task checks, so the work is forked.
+     * Every definition calls earlier ones and passes some of them around as
+     * values, which adds edges to the shared global symbols from many threads.
+     * A definition is replaced by the given body where one is given.
+     */
+    private Program wide(int definitions, Map<Integer, String> bodies) {
+        StringBuilder builder = new StringBuilder("d0 x y = nand ( x y )\n");
+        for (int i = 1; i < definitions; i++) {
+            builder.append("d").append(i).append(" x y = ");
+            if (bodies.containsKey(i)) {
+                builder.append(bodies.get(i)).append("\n");
+                continue;
+            }
+            int a = i - 1;
+            int b = i / 2;
+            // The checker can't call a global it has already taken as a value, so
+            // the value is one the definition doesn't call
+            int c = Math.max(i / 3, 1);
+            if (c == a || c == b) {
+                builder.append("nand ( d").append(a).append(" ( x y ) d0 )\n");
+                continue;
+            }
+            builder.append("let f = d").append(c).append(" in ")
+                .append("let v = d").append(a).append(" ( x nand ( y 1 ) ) in ")
+                .append("nand ( d").append(b).append(" ( v f ) d0 )\n");
+        }
+        return Programs.parse(builder.toString());
+    }
+
+    private static String error(Runnable check) {
+        try {
+            check.run();
+        } catch (RuntimeException e) {
+            return e.getMessage();
+        }
+        Assert.fail("Expected the program to be rejected");
+        return null;
+    }
+
+    @Test
+    public void testParallelMatchesSequentialForked() throws IOException {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            Program program = wide(200, new HashMap<>());
+            String expected = gen(Checker.check(program));
+            Assert.assertEquals(expected, gen(Checker.checkParallel(wide(200, new HashMap<>()))));
+        }
+    }
+
+    @Test
+    public void testParallelFirstError() {
+        // Failures in different subtasks, and a duplicate after the first of them
+        HashMap<Integer, String> bodies = new HashMap<>();
+        bodies.put(150, "d7 ( x y 1 )");
+        bodies.put(40, "d5 ( x y 1 )");
+        bodies.put(120, "d6 ( x y 1 )");
+        String expected = error(() -> Checker.check(wide(200, bodies)));
+        Assert.assertEquals(expected, error(() -> Checker.checkParallel(wide(200, bodies))));
+        Assert.assertEquals("Too many parameters for function d5", expected);
+
+        Program duplicated = wide(200, bodies);
+        Program sequential = wide(200, bodies);
+        duplicated.getDefinitions().set(100, duplicated.getDefinitions().get(3));
+        sequential.getDefinitions().set(100, sequential.getDefinitions().get(3));
+        Assert.assertEquals(error(() -> Checker.check(sequential)), error(() -> Checker.checkParallel(duplicated)));
+
+        // Only the duplicate is wrong among the definitions before it
+        bodies.remove(40);
+        Program late = wide(200, bodies);
+        Program lateSequential = wide(200, bodies);
+        late.getDefinitions().set(100, late.getDefinitions().get(3));
+        lateSequential.getDefinitions().set(100, lateSequential.getDefinitions().get(3));
+        String duplicate = error(() -> Checker.check(lateSequential));
+        Assert.assertTrue(duplicate.contains("Duplicate"));
+        Assert.assertEquals(duplicate, error(() -> Checker.checkParallel(late)));
+    }
+
+    @Test(expected=RuntimeException.class)
+    public void testParallelDuplicateFunction() throws IOException {
+        Checker.checkParallel(parse("src/test/resources/duplicate_function"));
+    }
+}
@@ -0,0 +1,72 @@
+package testCodegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import checker.Checker.*;
+import codegen.BinaryCodegen;
+import codegen.BinaryNetlist;
+import parser.Lexer;
+import parser.Parser;
+
+public class TestBinaryNetlist {
+
+    private CheckedProgram check(String filename) throws IOException {
+        try (Lexer lexer = Lexer.open(filename)) {
+            return Checker.check(Parser.parse(lexer));
+        }
+    }
+
+    private BinaryNetlist roundTrip(CheckedProgram program) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryCodegen.gen(program, out);
+        return new BinaryNetlist(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        CheckedProgram program = check("src/test/resources/latch");
+        BinaryNetlist netlist = roundTrip(program);
+        Assert.assertEquals(program.definitions.size(), netlist.definitionCount());
+
+        for (int i = 0; i < program.definitions.size(); i++) {
+            CheckedDefinition d = program.definitions.get(i);
+            BinaryNetlist.Definition b = netlist.definition(i);
+            Assert.assertEquals(d.ident.name, netlist.string(b.name()));
+            Assert.assertEquals(d.patterns.size(), b.inputCount());
+
+            List<Symbol> nodes = new ArrayList<>();
+            for (Symbol s : d.symbols.values()) {
+                if (s.type != SymbolType.DEFINITION) {
+                    nodes.add(s);
+                }
+            }
+            Assert.assertEquals(nodes.size(), b.nodeCount());
+            for (int n = 0; n < nodes.size(); n++) {
+                Symbol s = nodes.get(n);
+                Assert.assertEquals(s.ident.name, netlist.string(b.nodeName(n)));
+                Assert.assertEquals(s.references.size(), b.firstEdge(n + 1) - b.firstEdge(n));
+                for (int j = 0; j < s.references.size(); j++) {
+                    int edge = b.firstEdge(n) + j;
+                    Assert.assertEquals(s.references.get(j), netlist.string(b.nodeName(b.edgeSink(edge))));
+                    Assert.assertEquals(s.referencesInputs.get(j), netlist.string(b.edgeSinkInput(edge)));
+                }
+                if (s.type == SymbolType.CALL) {
+                    Assert.assertEquals(BinaryCodegen.KIND_INTERNAL, b.nodeKind(n));
+                    Assert.assertEquals(((SymbolCall) s).functionType, netlist.string(b.callee(n)));
+                }
+            }
+        }
+        Assert.assertNotNull(netlist.definition("latch"));
+        Assert.assertNull(netlist.definition("missing"));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        Assert.assertEquals(0, roundTrip(check("src/test/resources/empty")).definitionCount());
+    }
+}
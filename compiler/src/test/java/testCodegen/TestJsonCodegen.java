@@ -0,0 +1,173 @@
+package testCodegen;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import checker.Checker.*;
+import codegen.Codegen;
+import codegen.JsonWriter;
+import parser.Lexer;
+import parser.Parser;
+
+public class TestJsonCodegen {
+
+    private static String gen(String filename, boolean compact) throws IOException {
+        CheckedProgram program;
+        try (Lexer lexer = Lexer.open(filename)) {
+            program = Checker.check(Parser.parse(lexer));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codegen.gen(program, out, compact);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Just enough of a JSON parser for codegen output: objects become maps, arrays
+     * lists and strings strings.
+     */
+    private static class Json {
+        private String text;
+        private int position;
+
+        Json(String text) {
+            this.text = text;
+            this.position = 0;
+        }
+
+        static Object parse(String text) {
+            Json json = new Json(text);
+            Object value = json.value();
+            json.skipWhitespace();
+            Assert.assertEquals(text.length(), json.position);
+            return value;
+        }
+
+        private Object value() {
+            skipWhitespace();
+            char c = text.charAt(position);
+            if (c == '{') {
+                LinkedHashMap<String, Object> object = new LinkedHashMap<>();
+                position++;
+                skipWhitespace();
+                if (text.charAt(position) == '}') {
+                    position++;
+                    return object;
+                }
+                while (true) {
+                    skipWhitespace();
+                    String key = string();
+                    skipWhitespace();
+                    expect(':');
+                    Object previous = object.put(key, value());
+                    Assert.assertTrue("duplicate key " + key, previous == null);
+                    skipWhitespace();
+                    if (text.charAt(position++) == '}') {
+                        return object;
+                    }
+                    Assert.assertEquals(',', text.charAt(position - 1));
+                }
+            } else if (c == '[') {
+                List<Object> array = new ArrayList<>();
+                position++;
+                skipWhitespace();
+                if (text.charAt(position) == ']') {
+                    position++;
+                    return array;
+                }
+                while (true) {
+                    array.add(value());
+                    skipWhitespace();
+                    if (text.charAt(position++) == ']') {
+                        return array;
+                    }
+                    Assert.assertEquals(',', text.charAt(position - 1));
+                }
+            }
+            return string();
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder builder = new StringBuilder();
+            while (true) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return builder.toString();
+                } else if (c == '\\') {
+                    char e = text.charAt(position++);
+                    if (e == 'n') {
+                        builder.append('\n');
+                    } else if (e == 't') {
+                        builder.append('\t');
+                    } else if (e == 'r') {
+                        builder.append('\r');
+                    } else if (e == 'b') {
+                        builder.append('\b');
+                    } else if (e == 'f') {
+                        builder.append('\f');
+                    } else if (e == 'u') {
+                        builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                    } else {
+                        builder.append(e);
+                    }
+                } else {
+                    Assert.assertTrue("unescaped control character", c >= 0x20);
+                    builder.append(c);
+                }
+            }
+        }
+
+        private void expect(char c) {
+            Assert.assertEquals(c, text.charAt(position++));
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * The expected output was generated before codegen moved to JsonWriter.
+     */
+    @Test
+    public void testMatchesFixture() throws IOException {
+        String expected = Files.readString(Path.of("src/test/expected/xor.json"), StandardCharsets.UTF_8);
+        Assert.assertEquals(expected, gen("src/test/resources/xor", false));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        for (String file : Arrays.asList("xor", "latch", "literal", "assign_variable", "empty")) {
+            String pretty = gen("src/test/resources/" + file, false);
+            String compact = gen("src/test/resources/" + file, true);
+            Assert.assertTrue(compact.length() < pretty.length());
+            Assert.assertTrue(compact.endsWith("\n"));
+            Assert.assertFalse(compact.substring(0, compact.length() - 1).contains(" "));
+            Assert.assertFalse(compact.substring(0, compact.length() - 1).contains("\n"));
+            Assert.assertEquals(Json.parse(pretty), Json.parse(compact));
+        }
+    }
+
+    @Test
+    public void testEscapes() throws IOException {
+        String tricky = "quote\" backslash\\ newline\n tab\t control\u0001 \u00e9\u4e2d";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonWriter writer = new JsonWriter(out, true);
+        writer.raw('[');
+        writer.string(tricky);
+        writer.comma();
+        writer.string(tricky);
+        writer.raw(']');
+        writer.flush();
+        Assert.assertEquals(Arrays.asList(tricky, tricky), Json.parse(out.toString(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,61 @@
+package testCompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import codegen.Codegen;
+import compiler.BatchCompiler;
+import parser.Lexer;
+import parser.Parser;
+
+public class TestBatchCompiler {
+
+    @Test
+    public void testDirectory() throws IOException {
+        Path out = Files.createTempDirectory("batch");
+        BatchCompiler batch = new BatchCompiler();
+        batch.jobs = 4;
+        List<BatchCompiler.Failure> failures = batch.compile(Arrays.asList("src/test/resources"), out.toString());
+
+        List<String> failed = new ArrayList<>();
+        for (BatchCompiler.Failure failure : failures) {
+            failed.add(Path.of(failure.file).getFileName().toString());
+        }
+        Assert.assertEquals(Arrays.asList("duplicate_function", "duplicate_symbol", "invalid_assign", "too_many_params.hdml"), failed);
+        Assert.assertFalse(Files.exists(out.resolve("duplicate_function.json")));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (Lexer lexer = Lexer.open("src/test/resources/xor")) {
+            Codegen.gen(Checker.check(Parser.parse(lexer)), expected, false);
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), Files.readAllBytes(out.resolve("xor.json")));
+    }
+
+    /**
+     * bad checks but fails in codegen, which must not leave a partial output behind.
+     */
+    @Test
+    public void testCodegenFailure() throws IOException {
+        Path in = Files.createTempDirectory("batch-in");
+        Path out = Files.createTempDirectory("batch-out");
+        Files.writeString(in.resolve("bad.hdml"), "f x = let t = x in let u = t in x\n");
+        Files.copy(Path.of("src/test/resources/xor"), in.resolve("xor"));
+        List<BatchCompiler.Failure> failures = new BatchCompiler().compile(Arrays.asList(in.toString()), out.toString());
+
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.get(0).file.endsWith("bad.hdml"));
+        List<String> written = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(out)) {
+            for (Path file : files) {
+                written.add(file.getFileName().toString());
+            }
+        }
+        Assert.assertEquals(Arrays.asList("xor.json"), written);
+    }
+}
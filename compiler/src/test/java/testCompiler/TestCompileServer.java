@@ -0,0 +1,143 @@
+package testCompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import codegen.Codegen;
+import compiler.CompileServer;
+import testUtil.Programs;
+
+public class TestCompileServer {
+
+    private static final String LIBRARY =
+        "not x = nand ( x x )\n" +
+        "and x y = not ( nand ( x y ) )\n" +
+        "or x y = nand ( not ( x ) not ( y ) )\n" +
+        "xor x y = and ( or ( x y ) nand ( x y ) )\n";
+
+    private String full(String source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codegen.gen(Checker.check(Programs.parse(source)), out, false);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testIncremental() throws IOException {
+        CompileServer server = new CompileServer();
+        Assert.assertEquals(full(LIBRARY), new String(server.compile("lib", Programs.parse(LIBRARY), false), "UTF-8"));
+        Assert.assertEquals(4, server.checked);
+
+        // Nothing changed
+        Assert.assertEquals(full(LIBRARY), new String(server.compile("lib", Programs.parse(LIBRARY), false), "UTF-8"));
+        Assert.assertEquals(0, server.checked);
+        Assert.assertEquals(4, server.reused);
+
+        // Only the edited body is checked again
+        String edited = LIBRARY.replace("xor x y = and ( or ( x y ) nand ( x y ) )", "xor x y = and ( nand ( x y ) or ( x y ) )");
+        Assert.assertEquals(full(edited), new String(server.compile("lib", Programs.parse(edited), false), "UTF-8"));
+        Assert.assertEquals(1, server.checked);
+
+        // Changing a signature checks its callers again
+        String renamed = edited.replace("not x = nand ( x x )", "not a = nand ( a a )");
+        Assert.assertEquals(full(renamed), new String(server.compile("lib", Programs.parse(renamed), false), "UTF-8"));
+        Assert.assertEquals(3, server.checked);
+    }
+
+    @Test
+    public void testErrorsMatchChecker() throws IOException {
+        CompileServer server = new CompileServer();
+        server.compile("lib", Programs.parse(LIBRARY), true);
+        // or is declared after and, so and can no longer call it
+        String broken = LIBRARY.replace("and x y = not ( nand ( x y ) )", "and x y = or ( x y )");
+        try {
+            server.compile("lib", Programs.parse(broken), true);
+            Assert.fail("Expected the server to reject and calling or");
+        } catch (RuntimeException e) {
+            try {
+                Checker.check(Programs.parse(broken));
+                Assert.fail("Expected the server to reject and calling or");
+            } catch (RuntimeException expected) {
+                Assert.assertEquals(expected.getMessage(), e.getMessage());
+            }
+        }
+    }
+
+    private static String request(Path socket, String request) throws IOException {
+        try (SocketChannel client = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            client.connect(UnixDomainSocketAddress.of(socket));
+            client.write(ByteBuffer.wrap((request + "\n").getBytes(StandardCharsets.UTF_8)));
+            client.shutdownOutput();
+            return new String(Channels.newInputStream(client).readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Starts a server on the socket and returns once it answers the first request.
+     */
+    private static Thread start(Path socket, String request, String expected) throws Exception {
+        Thread thread = new Thread(() -> {
+            try {
+                new CompileServer().serve(socket.toString());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        // The socket file shows up slightly before the server listens
+        for (int i = 0; ; i++) {
+            try {
+                Assert.assertEquals(expected, request(socket, request));
+                return thread;
+            } catch (IOException e) {
+                if (i == 100) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    @Test
+    public void testPathWithSpaces() throws Exception {
+        Path directory = Files.createTempDirectory("server dir");
+        Path file = directory.resolve("my lib.hdml");
+        Files.writeString(file, LIBRARY);
+        Path socket = directory.resolve("socket");
+        Thread thread = start(socket, "compile " + file, "ok\n" + full(LIBRARY));
+        Assert.assertEquals("ok\n", request(socket, "stop"));
+        thread.join();
+    }
+
+    @Test
+    public void testClientHangsUp() throws Exception {
+        Path directory = Files.createTempDirectory("server");
+        Path file = directory.resolve("lib");
+        Files.writeString(file, LIBRARY);
+        Path socket = directory.resolve("socket");
+        Thread thread = start(socket, "compile " + file, "ok\n" + full(LIBRARY));
+
+        // Gone before the reply is written, and gone before even asking
+        try (SocketChannel client = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            client.connect(UnixDomainSocketAddress.of(socket));
+            client.write(ByteBuffer.wrap(("compile " + file + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+        try (SocketChannel client = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            client.connect(UnixDomainSocketAddress.of(socket));
+        }
+
+        Assert.assertEquals("ok\n" + full(LIBRARY), request(socket, "compile " + file));
+        Assert.assertEquals("ok\n", request(socket, "stop"));
+        thread.join();
+    }
+}
@@ -0,0 +1,106 @@
+package testCompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.*;
+import compiler.CompileStats;
+import compiler.Compiler;
+
+public class TestCompileStats {
+
+    /**
+     * Runs the compiler and returns what it printed to stdout and stderr.
+     */
+    private static String[] run(String... args) {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(stdout, true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(stderr, true, StandardCharsets.UTF_8));
+            Compiler.main(args);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+        return new String[]{stdout.toString(StandardCharsets.UTF_8), stderr.toString(StandardCharsets.UTF_8)};
+    }
+
+    /**
+     * Phase name -> its key=value pairs, from the lines --stats prints.
+     */
+    private static LinkedHashMap<String, HashMap<String, String>> parse(String stats) {
+        LinkedHashMap<String, HashMap<String, String>> phases = new LinkedHashMap<>();
+        for (String line : stats.split("\n")) {
+            String[] words = line.split(" ");
+            Assert.assertEquals("stats", words[0]);
+            HashMap<String, String> values = new HashMap<>();
+            for (int i = 1; i < words.length; i++) {
+                String[] pair = words[i].split("=");
+                values.put(pair[0], pair[1]);
+            }
+            phases.put(values.get("phase"), values);
+        }
+        return phases;
+    }
+
+    @Test
+    public void testStats() {
+        String[] plain = run("src/test/resources/xor");
+        String[] stats = run("src/test/resources/xor", "--stats");
+        // Tokenizing up front mustn't change the output
+        Assert.assertEquals(plain[0], stats[0]);
+        Assert.assertEquals("", plain[1]);
+
+        LinkedHashMap<String, HashMap<String, String>> phases = parse(stats[1]);
+        Assert.assertEquals(Arrays.asList("tokenize", "parse", "check", "codegen"), new ArrayList<>(phases.keySet()));
+        for (HashMap<String, String> phase : phases.values()) {
+            Assert.assertTrue(Double.parseDouble(phase.get("wall_ms")) >= 0);
+            Assert.assertNotNull(phase.get("allocated_bytes"));
+        }
+        Assert.assertTrue(Long.parseLong(phases.get("tokenize").get("tokens")) > 0);
+        Assert.assertEquals("3", phases.get("parse").get("definitions"));
+        Assert.assertEquals("3", phases.get("check").get("definitions"));
+        Assert.assertTrue(Long.parseLong(phases.get("check").get("symbols")) > 0);
+        Assert.assertTrue(Long.parseLong(phases.get("check").get("edges")) > 0);
+        Assert.assertEquals(Integer.toString(stats[0].getBytes(StandardCharsets.UTF_8).length), phases.get("codegen").get("bytes"));
+    }
+
+    @Test
+    public void testPrint() {
+        CompileStats stats = new CompileStats();
+        CompileStats.Phase phase = stats.start("work");
+        phase.count("things", 3);
+        phase.end();
+        Assert.assertTrue(phase.nanos >= 0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stats.print(new PrintStream(out, true, StandardCharsets.UTF_8));
+        HashMap<String, String> printed = parse(out.toString(StandardCharsets.UTF_8)).get("work");
+        Assert.assertEquals("3", printed.get("things"));
+    }
+
+    /**
+     * Numbers stay machine readable wherever the build runs.
+     */
+    @Test
+    public void testLocale() {
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            CompileStats stats = new CompileStats();
+            CompileStats.Phase phase = stats.start("work");
+            phase.end();
+            phase.nanos = 1234567;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            stats.print(new PrintStream(out, true, StandardCharsets.UTF_8));
+            Assert.assertEquals("1.235", parse(out.toString(StandardCharsets.UTF_8)).get("work").get("wall_ms"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package testFlatten;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Lexer;
+import parser.Parser;
+import sim.BitSimulator;
+import testUtil.Programs;
+
+public class TestFlattener {
+
+    private Flattener flattener(String source) {
+        return new Flattener(Programs.check(source));
+    }
+
+    private Flattener flattenerFile(String filename) throws IOException {
+        try (Lexer lexer = Lexer.open(filename)) {
+            return new Flattener(Checker.check(Parser.parse(lexer)));
+        }
+    }
+
+    @Test
+    public void testSeveralRoots() throws IOException {
+        List<Netlist> netlists = flattenerFile("src/test/resources/latch").flatten(Arrays.asList("or", "nor", "id"));
+        Assert.assertEquals(3, netlists.size());
+        Assert.assertEquals(3, netlists.get(0).gateCount);
+        Assert.assertEquals(4, netlists.get(1).gateCount);
+        Assert.assertEquals(2, netlists.get(2).gateCount);
+        Assert.assertEquals("nor", netlists.get(1).name);
+    }
+
+    /**
+     * Each level calls the one below twice, so the flattened root doubles in size
+     * with every level while each definition is only flattened once.
+     */
+    @Test
+    public void testDoublingHierarchy() {
+        int levels = 16;
+        StringBuilder source = new StringBuilder("d0 x = nand ( x x )\n");
+        for (int i = 1; i <= levels; i++) {
+            source.append("d").append(i).append(" x = d").append(i - 1)
+                .append(" ( d").append(i - 1).append(" ( x ) )\n");
+        }
+        Netlist netlist = flattener(source.toString()).flatten("d" + levels);
+        Assert.assertEquals(1 << levels, netlist.gateCount);
+        Assert.assertEquals(1 << levels, netlist.depth());
+        // an even number of inversions
+        Assert.assertEquals(0b10, new BitSimulator(netlist).truthTable()[0]);
+    }
+}
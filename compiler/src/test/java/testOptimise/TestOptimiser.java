@@ -0,0 +1,76 @@
+package testOptimise;
+
+
+import org.junit.*;
+import flatten.Flattener;
+import flatten.Netlist;
+import optimise.Optimiser;
+import sim.BitSimulator;
+import testUtil.Programs;
+
+public class TestOptimiser {
+
+    private static final String SOURCE =
+        "not x = nand ( x x )\n" +
+        "id x = not ( not ( x ) )\n" +
+        "and x y = not ( nand ( x y ) )\n" +
+        "or x y = nand ( not ( x ) not ( y ) )\n" +
+        "xor x y = and ( nand ( x y ) or ( x y ) )\n" +
+        "mux s a b = or ( and ( s a ) and ( not ( s ) b ) )\n" +
+        "muxhi a b = mux ( 1 a b )\n" +
+        "dup x y = and ( xor ( x y ) xor ( x y ) )\n" +
+        "taut x = nand ( x not ( x ) )\n";
+
+    private Flattener flattener() {
+        return new Flattener(Programs.check(SOURCE));
+    }
+
+    private Netlist optimised(String root) {
+        Netlist netlist = flattener().flatten(root);
+        Netlist optimised = Optimiser.optimise(netlist);
+        Assert.assertArrayEquals(new BitSimulator(netlist).truthTable(), new BitSimulator(optimised).truthTable());
+        return optimised;
+    }
+
+    @Test
+    public void testDoubleNegation() {
+        Netlist netlist = optimised("id");
+        Assert.assertEquals(0, netlist.gateCount);
+        Assert.assertEquals(netlist.input(0), netlist.output);
+    }
+
+    @Test
+    public void testConstantInput() {
+        Netlist netlist = optimised("muxhi");
+        Assert.assertEquals(0, netlist.gateCount);
+        Assert.assertEquals(netlist.input(0), netlist.output);
+    }
+
+    @Test
+    public void testMergeIdentical() {
+        Assert.assertEquals(optimised("xor").gateCount, optimised("dup").gateCount);
+    }
+
+    @Test
+    public void testTautology() {
+        Assert.assertEquals(Netlist.TRUE, optimised("taut").output);
+    }
+
+    @Test
+    public void testReport() {
+        Optimiser.Report report = new Optimiser.Report();
+        Optimiser.optimise(flattener().flatten("mux"), report);
+        Assert.assertEquals(8, report.before);
+        Assert.assertEquals(4, report.after);
+    }
+
+    @Test
+    public void testReportAddsUp() {
+        for (String root : new String[]{"id", "mux", "muxhi", "dup", "taut"}) {
+            Optimiser.Report report = new Optimiser.Report();
+            Optimiser.optimise(flattener().flatten(root), report);
+            Assert.assertEquals(report.before - report.after,
+                report.folded + report.inversions + report.merged + report.dead);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package testOptimise;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker.*;
+import codegen.Codegen;
+import flatten.Flattener;
+import flatten.Netlist;
+import optimise.Specialiser;
+import sim.BitSimulator;
+import testUtil.Programs;
+
+public class TestSpecialiser {
+
+    private static final String SOURCE =
+        "not x = nand ( x x )\n" +
+        "and x y = not ( nand ( x y ) )\n" +
+        "or x y = nand ( not ( x ) not ( y ) )\n" +
+        "mux s a b = or ( and ( s a ) and ( not ( s ) b ) )\n" +
+        "muxhi a b = mux ( 1 a b )\n" +
+        "muxlo a b = mux ( 0 a b )\n" +
+        "muxhi2 a b = mux ( 1 b a )\n" +
+        "one x = nand ( x 0 )\n" +
+        "useone x y = and ( one ( x ) y )\n" +
+        "half x = nand ( x 1 )\n";
+
+    private static byte[] gen(CheckedProgram p) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codegen.gen(p, out, false);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testSpecialise() {
+        CheckedProgram checked = Programs.check(SOURCE);
+        Specialiser.Report report = new Specialiser.Report();
+        CheckedProgram specialised = Specialiser.specialise(checked, report);
+
+        // One clone per pattern, shared between calls, ahead of its first use
+        List<String> names = Programs.names(specialised);
+        Assert.assertEquals(1, Collections.frequency(names, "mux_1xx"));
+        Assert.assertTrue(names.indexOf("mux_1xx") < names.indexOf("muxhi"));
+        Assert.assertTrue(names.contains("mux_0xx"));
+        Assert.assertEquals(names.size() - checked.definitions.size(), report.clones);
+
+        Flattener before = new Flattener(checked);
+        Flattener after = new Flattener(specialised);
+        for (CheckedDefinition d : checked.definitions) {
+            String name = d.ident.name;
+            Netlist original = before.flatten(name);
+            Netlist folded = after.flatten(name);
+            Assert.assertArrayEquals(new BitSimulator(original).truthTable(), new BitSimulator(folded).truthTable());
+            Assert.assertTrue(folded.gateCount <= original.gateCount);
+        }
+        Assert.assertTrue(after.flatten("muxhi").gateCount < before.flatten("muxhi").gateCount);
+        // one is always 1, so useone is and with x tied high, which is not not y
+        Assert.assertEquals(0, after.flatten("one").gateCount);
+        Assert.assertEquals(2, after.flatten("useone").gateCount);
+    }
+
+    @Test
+    public void testUnchanged() throws IOException {
+        CheckedProgram checked = Programs.check("not x = nand ( x x )\nor x y = nand ( not ( x ) not ( y ) )\n");
+        Specialiser.Report report = new Specialiser.Report();
+        CheckedProgram specialised = Specialiser.specialise(checked, report);
+        Assert.assertEquals(0, report.clones);
+        Assert.assertArrayEquals(gen(checked), gen(specialised));
+    }
+
+    /**
+     * The checker names the 1 node t here, so the folded clone has to bring its own.
+     */
+    @Test
+    public void testRenamedConstant() {
+        CheckedProgram checked = Programs.check("f0 p0 p1 = let t = 1 in nand ( p0 p1 )\nf1 p0 = f0 ( p0 0 )\n");
+        CheckedProgram specialised = Specialiser.specialise(checked, new Specialiser.Report());
+        Flattener before = new Flattener(checked);
+        Flattener after = new Flattener(specialised);
+        Assert.assertArrayEquals(new BitSimulator(before.flatten("f1")).truthTable(), new BitSimulator(after.flatten("f1")).truthTable());
+        Assert.assertEquals(0, after.flatten("f1").gateCount);
+    }
+}
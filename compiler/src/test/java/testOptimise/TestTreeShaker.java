@@ -0,0 +1,83 @@
+package testOptimise;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker.*;
+import codegen.Codegen;
+import flatten.Flattener;
+import optimise.TreeShaker;
+import sim.BitSimulator;
+import testUtil.Programs;
+
+public class TestTreeShaker {
+
+    private static final String SOURCE =
+        "not x = nand ( x x )\n" +
+        "and x y = not ( nand ( x y ) )\n" +
+        "unused x y = and ( x y )\n" +
+        "deadonly x = x\n" +
+        "or x y = let spare = deadonly ( x ) in nand ( not ( x ) not ( y ) )\n" +
+        "nor x y = not ( or ( x y ) )\n" +
+        "pick x y = let z = nand ( y y ) in x\n";
+
+    private static CheckedDefinition definition(CheckedProgram p, String name) {
+        for (CheckedDefinition d : p.definitions) {
+            if (d.ident.name.equals(name)) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    private static byte[] gen(CheckedProgram p) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codegen.gen(p, out, true);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testReachable() throws IOException {
+        CheckedProgram checked = Programs.check(SOURCE);
+        byte[] before = gen(checked);
+        TreeShaker.Report report = new TreeShaker.Report();
+        CheckedProgram shaken = TreeShaker.shake(checked, Arrays.asList("nor"), report);
+
+        // deadonly is only called from a node that doesn't reach the output
+        Assert.assertEquals(Arrays.asList("not", "or", "nor"), Programs.names(shaken));
+        Assert.assertEquals(7, report.definitionsBefore);
+        Assert.assertEquals(3, report.definitionsAfter);
+        Assert.assertTrue(gen(shaken).length < before.length);
+        // The original is left alone
+        Assert.assertArrayEquals(before, gen(checked));
+
+        for (String root : new String[]{"or", "nor"}) {
+            Assert.assertArrayEquals(
+                new BitSimulator(new Flattener(checked).flatten(root)).truthTable(),
+                new BitSimulator(new Flattener(shaken).flatten(root)).truthTable());
+        }
+    }
+
+    @Test
+    public void testDeadNodes() {
+        CheckedProgram shaken = TreeShaker.shake(Programs.check(SOURCE), Arrays.asList("pick", "or"));
+        Assert.assertEquals(Arrays.asList("not", "or", "pick"), Programs.names(shaken));
+
+        // z goes, and so does its edge from y, but y stays as an input
+        CheckedDefinition pick = definition(shaken, "pick");
+        Set<String> nodes = new HashSet<>();
+        for (Symbol s : pick.symbols.values()) {
+            nodes.add(s.ident.name);
+            Assert.assertFalse(s.references.contains("z"));
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList("x", "y", "pick_OUTPUT")), nodes);
+        Assert.assertNull(pick.symbols.get("spare"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testUnknownRoot() {
+        TreeShaker.shake(Programs.check(SOURCE), Arrays.asList("missing"));
+    }
+}
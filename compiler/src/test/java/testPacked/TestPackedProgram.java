@@ -0,0 +1,88 @@
+package testPacked;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import codegen.Codegen;
+import flatten.Flattener;
+import flatten.Netlist;
+import packed.PackedFlattener;
+import packed.PackedProgram;
+import parser.Lexer;
+import parser.Parser;
+import testUtil.Programs;
+
+public class TestPackedProgram {
+
+    private CheckedProgram checkFile(String filename) throws IOException {
+        try (Lexer lexer = Lexer.open(filename)) {
+            return Checker.check(Parser.parse(lexer));
+        }
+    }
+
+    private static String gen(CheckedProgram p, boolean compact) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codegen.gen(p, out, compact);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String gen(PackedProgram p, boolean compact) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Codegen.gen(p, out, compact);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSameCodegen() throws IOException {
+        for (String file : Arrays.asList("and", "or", "xor", "latch", "assign_variable", "literal")) {
+            CheckedProgram checked = checkFile("src/test/resources/" + file);
+            PackedProgram packed = PackedProgram.of(checked);
+            Assert.assertEquals(file, gen(checked, false), gen(packed, false));
+            Assert.assertEquals(file, gen(checked, true), gen(packed, true));
+        }
+    }
+
+    @Test
+    public void testFanIn() throws IOException {
+        PackedProgram packed = PackedProgram.of(checkFile("src/test/resources/and"));
+        Assert.assertEquals(packed.edgeCount, packed.inStart[packed.nodeCount]);
+        for (int n = 0; n < packed.nodeCount; n++) {
+            for (int e = packed.outStart[n]; e < packed.outStart[n + 1]; e++) {
+                Assert.assertEquals(n, packed.driver(packed.outSink[e], packed.outInput[e]));
+            }
+        }
+    }
+
+    @Test
+    public void testSameNetlists() throws IOException {
+        StringBuilder source = new StringBuilder("d0 x = nand ( x x )\n");
+        for (int i = 1; i <= 8; i++) {
+            source.append("d").append(i).append(" x = d").append(i - 1)
+                .append(" ( d").append(i - 1).append(" ( x ) )\n");
+        }
+        source.append("pick a b = nand ( d3 ( a ) 1 )\n");
+        CheckedProgram checked = Programs.check(source.toString());
+        List<String> roots = Arrays.asList("d8", "pick", "d0");
+        List<Netlist> expected = new Flattener(checked).flatten(roots);
+        List<Netlist> actual = new PackedFlattener(PackedProgram.of(checked)).flatten(roots);
+        for (int i = 0; i < roots.size(); i++) {
+            Netlist a = expected.get(i);
+            Netlist b = actual.get(i);
+            Assert.assertEquals(a.inputs, b.inputs);
+            Assert.assertEquals(a.gateCount, b.gateCount);
+            Assert.assertArrayEquals(Arrays.copyOf(a.left, a.gateCount), Arrays.copyOf(b.left, b.gateCount));
+            Assert.assertArrayEquals(Arrays.copyOf(a.right, a.gateCount), Arrays.copyOf(b.right, b.gateCount));
+            Assert.assertEquals(a.output, b.output);
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testFeedback() throws IOException {
+        new PackedFlattener(PackedProgram.of(checkFile("src/test/resources/latch"))).flatten("latch");
+    }
+}
@@ -0,0 +1,66 @@
+package testSim;
+
+import java.io.IOException;
+
+import org.junit.*;
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Lexer;
+import parser.Parser;
+import sim.BitSimulator;
+
+public class TestBitSimulator {
+
+    private Flattener flattener(String filename) throws IOException {
+        try (Lexer lexer = Lexer.open(filename)) {
+            CheckedProgram checked = Checker.check(Parser.parse(lexer));
+            return new Flattener(checked);
+        }
+    }
+
+    private long truthTable(String filename, String root) throws IOException {
+        return new BitSimulator(flattener(filename).flatten(root)).truthTable()[0];
+    }
+
+    // Bit v is the output for x = bit 0 of v, y = bit 1 of v
+
+    @Test
+    public void testXor() throws IOException {
+        Assert.assertEquals(0b0110, truthTable("src/test/resources/xor", "xor"));
+    }
+
+    @Test
+    public void testOr() throws IOException {
+        Assert.assertEquals(0b1110, truthTable("src/test/resources/or", "or"));
+    }
+
+    @Test
+    public void testNor() throws IOException {
+        Assert.assertEquals(0b0001, truthTable("src/test/resources/latch", "nor"));
+    }
+
+    @Test
+    public void testLiteral() throws IOException {
+        Assert.assertEquals(0b1, truthTable("src/test/resources/literal", "true"));
+    }
+
+    @Test
+    public void testLevels() throws IOException {
+        Netlist netlist = flattener("src/test/resources/latch").flatten("nor");
+        Assert.assertEquals(netlist.gateCount, netlist.levels[netlist.depth()]);
+        int first = netlist.firstGate();
+        for (int l = 1; l <= netlist.depth(); l++) {
+            for (int g = netlist.levels[l - 1]; g < netlist.levels[l]; g++) {
+                Assert.assertTrue(netlist.left[g] < first + netlist.levels[l - 1]);
+                Assert.assertTrue(netlist.right[g] < first + netlist.levels[l - 1]);
+            }
+        }
+    }
+
+    @Test(expected=RuntimeException.class)
+    public void testFeedbackLoop() throws IOException {
+        flattener("src/test/resources/latch").flatten("latch");
+    }
+}
@@ -0,0 +1,88 @@
+package testSim;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Lexer;
+import parser.Parser;
+import sim.BitSimulator;
+import sim.CircuitCompiler;
+import sim.CompiledCircuit;
+import testUtil.Programs;
+
+public class TestCircuitCompiler {
+
+    private void assertMatches(Netlist netlist, CompiledCircuit circuit) {
+        BitSimulator simulator = new BitSimulator(netlist);
+        Random random = new Random(42);
+        long[] inputs = new long[netlist.inputs.size()];
+        for (int i = 0; i < 16; i++) {
+            for (int j = 0; j < inputs.length; j++) {
+                inputs[j] = random.nextLong();
+            }
+            Assert.assertEquals(simulator.eval(inputs), circuit.eval(inputs));
+        }
+    }
+
+    @Test
+    public void testCachedPerDefinition() throws IOException {
+        CheckedProgram checked;
+        try (Lexer lexer = Lexer.open("src/test/resources/xor")) {
+            checked = Checker.check(Parser.parse(lexer));
+        }
+        CircuitCompiler compiler = new CircuitCompiler(checked);
+        CompiledCircuit xor = compiler.get("xor");
+        Assert.assertSame(xor, compiler.get("xor"));
+        Assert.assertEquals(0x0FF00FF00FF00FF0L ^ 0x3333333333333333L,
+            xor.eval(0x0FF00FF00FF00FF0L, 0x3333333333333333L));
+    }
+
+    /**
+     * A wide tree of xors, large enough to be split into chunks.
+     */
+    private Netlist wide() {
+        StringBuilder source = new StringBuilder("xor x y = nand ( nand ( x nand ( x y ) ) nand ( y nand ( x y ) ) )\n");
+        source.append("x0 a b c d = xor ( xor ( a b ) xor ( c d ) )\n");
+        for (int i = 1; i <= 8; i++) {
+            source.append("x").append(i).append(" a b c d = xor ( xor ( x").append(i - 1).append(" ( a b c d ) x")
+                .append(i - 1).append(" ( b c d a ) ) xor ( x").append(i - 1).append(" ( c d a b ) a ) )\n");
+        }
+        return new Flattener(Programs.check(source.toString())).flatten("x8");
+    }
+
+    @Test
+    public void testChunked() {
+        Netlist netlist = wide();
+        Assert.assertTrue(netlist.gateCount > 10000);
+        assertMatches(netlist, CircuitCompiler.compile(netlist));
+    }
+
+    @Test
+    public void testConstantOutput() {
+        Netlist netlist = new Flattener(Programs.check("one = 1\n")).flatten("one");
+        Assert.assertEquals(-1L, CircuitCompiler.compile(netlist).eval());
+    }
+
+    private void assertRejects(CompiledCircuit circuit, long... inputs) {
+        try {
+            circuit.eval(inputs);
+            Assert.fail("eval took " + inputs.length + " inputs");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Expected 4 inputs, got " + inputs.length));
+        }
+    }
+
+    @Test
+    public void testInputCount() {
+        Netlist small = new Flattener(Programs.check("and4 a b c d = nand ( nand ( nand ( a b ) nand ( c d ) ) 1 )\n")).flatten("and4");
+        for (CompiledCircuit circuit : Arrays.asList(CircuitCompiler.compile(small), CircuitCompiler.compile(wide()))) {
+            assertRejects(circuit, 1L, 2L, 3L);
+            assertRejects(circuit, 1L, 2L, 3L, 4L, 5L);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package testSim;
+
+import java.io.IOException;
+
+import org.junit.*;
+import checker.Checker;
+import checker.Checker.CheckedProgram;
+import parser.Lexer;
+import parser.Parser;
+import sim.EventSimulator;
+
+public class TestEventSimulator {
+
+    private CheckedProgram check(String file) throws IOException {
+        try (Lexer lexer = Lexer.open(file)) {
+            return Checker.check(Parser.parse(lexer));
+        }
+    }
+
+    @Test
+    public void testLatch() throws IOException {
+        EventSimulator latch = new EventSimulator(check("src/test/resources/latch"), "latch");
+        // Reset
+        latch.set(0, true);
+        latch.settle();
+        Assert.assertFalse(latch.output());
+        // Hold
+        latch.set(0, false);
+        latch.settle();
+        Assert.assertFalse(latch.output());
+        // Set
+        latch.set(1, true);
+        int steps = latch.settle();
+        Assert.assertTrue(latch.output());
+        Assert.assertTrue(steps > 0);
+        // Hold
+        latch.set(1, false);
+        latch.settle();
+        Assert.assertTrue(latch.output());
+        // Nothing changed, so nothing is evaluated
+        long evaluations = latch.getEvaluations();
+        latch.set(1, false);
+        Assert.assertEquals(0, latch.settle());
+        Assert.assertEquals(evaluations, latch.getEvaluations());
+    }
+
+    @Test
+    public void testCombinational() throws IOException {
+        EventSimulator xor = new EventSimulator(check("src/test/resources/xor"), "xor");
+        for (int v = 0; v < 4; v++) {
+            xor.set(0, (v & 1) != 0);
+            xor.set(1, (v & 2) != 0);
+            xor.settle();
+            Assert.assertEquals(v == 1 || v == 2, xor.output());
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testOscillation() throws IOException {
+        // Released from all zeros at once, both sides of the latch flip together forever
+        EventSimulator latch = new EventSimulator(check("src/test/resources/latch"), "latch");
+        latch.settle();
+    }
+}
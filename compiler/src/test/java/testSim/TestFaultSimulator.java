@@ -0,0 +1,82 @@
+package testSim;
+
+import java.util.*;
+
+import org.junit.*;
+import flatten.Flattener;
+import flatten.Netlist;
+import sim.BitSimulator;
+import sim.FaultSimulator;
+import testUtil.Programs;
+
+public class TestFaultSimulator {
+
+    private static final String SOURCE =
+        "not x = nand ( x x )\n" +
+        "and x y = not ( nand ( x y ) )\n" +
+        "or x y = nand ( not ( x ) not ( y ) )\n" +
+        "xor x y = and ( nand ( x y ) or ( x y ) )\n" +
+        "mux s a b = or ( and ( s a ) and ( not ( s ) b ) )\n" +
+        "taut x = nand ( x not ( x ) )\n";
+
+    private static Netlist flatten(String root) {
+        return new Flattener(Programs.check(SOURCE)).flatten(root);
+    }
+
+    /**
+     * Counts the detectable faults one at a time, by tying the net to a constant
+     * wherever it's read and comparing full truth tables.
+     */
+    private static int detectable(Netlist netlist) {
+        long[] good = new BitSimulator(netlist).truthTable();
+        int count = 0;
+        for (int net = netlist.input(0); net < netlist.netCount(); net++) {
+            for (int stuck = Netlist.FALSE; stuck <= Netlist.TRUE; stuck++) {
+                Netlist faulty = new Netlist(netlist.name, netlist.inputs);
+                for (int g = 0; g < netlist.gateCount; g++) {
+                    faulty.addGate(netlist.left[g] == net ? stuck : netlist.left[g], netlist.right[g] == net ? stuck : netlist.right[g]);
+                }
+                faulty.output = netlist.output == net ? stuck : netlist.output;
+                if (!Arrays.equals(good, new BitSimulator(faulty).truthTable())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testExhaustive() {
+        for (String root : new String[]{"xor", "mux", "taut"}) {
+            Netlist netlist = flatten(root);
+            FaultSimulator.Report report = new FaultSimulator(netlist).simulateExhaustive();
+            Assert.assertEquals(2 * (netlist.netCount() - 2), report.faults);
+            Assert.assertEquals(detectable(netlist), report.detected);
+            Assert.assertEquals(report.faults - report.detected, report.undetected.size());
+        }
+    }
+
+    @Test
+    public void testRedundant() {
+        // The output is always 1, so only faults that make it 0 show: the output
+        // itself stuck at 0, and the inverter stuck at 1 which leaves not x
+        FaultSimulator.Report report = new FaultSimulator(flatten("taut")).simulateExhaustive();
+        Assert.assertEquals(2, report.detected);
+        Assert.assertTrue(report.undetected.contains("x stuck-at-0"));
+        Assert.assertFalse(report.undetected.contains("gate 0 stuck-at-1"));
+    }
+
+    @Test
+    public void testVectors() {
+        Netlist netlist = flatten("xor");
+        FaultSimulator.Report one = new FaultSimulator(netlist).simulate(new boolean[][]{{true, true}});
+        Assert.assertEquals(1, one.vectors);
+        Assert.assertTrue(one.detected < one.faults);
+
+        // Once everything is found the rest of the vectors are skipped
+        boolean[][] twice = {{false, false}, {true, false}, {false, true}, {true, true}, {false, false}};
+        FaultSimulator.Report report = new FaultSimulator(netlist).simulate(twice);
+        Assert.assertEquals(report.faults, report.detected);
+        Assert.assertEquals(4, report.vectors);
+    }
+}
@@ -0,0 +1,63 @@
+package testSim;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.*;
+import checker.Checker;
+import flatten.Flattener;
+import flatten.Netlist;
+import parser.Lexer;
+import parser.Parser;
+import sim.BitSimulator;
+import sim.ParallelSimulator;
+
+public class TestParallelSimulator {
+
+    /**
+     * Random gates in a few wide levels, narrowing down to a short tail, so both
+     * parallel and single threaded steps run.
+     */
+    private static Netlist wide(long seed) {
+        Random random = new Random(seed);
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            inputs.add("i" + i);
+        }
+        Netlist netlist = new Netlist("wide", inputs);
+        int from = Netlist.TRUE + 1;
+        int to = netlist.firstGate();
+        for (int width : new int[]{50000, 40000, 30000, 100, 10, 1}) {
+            int start = netlist.netCount();
+            for (int g = 0; g < width; g++) {
+                netlist.addGate(from + random.nextInt(to - from), from + random.nextInt(to - from));
+            }
+            from = start;
+            to = netlist.netCount();
+        }
+        netlist.output = netlist.netCount() - 1;
+        return netlist.levelise();
+    }
+
+    @Test
+    public void testMatchesBitSimulator() {
+        Netlist netlist = wide(1);
+        Random random = new Random(2);
+        for (int i = 0; i < 8; i++) {
+            netlist.output = netlist.firstGate() + random.nextInt(netlist.gateCount);
+            try (ParallelSimulator parallel = new ParallelSimulator(netlist, 4)) {
+                Assert.assertArrayEquals(new BitSimulator(netlist).random(1024, i), parallel.random(1024, i));
+            }
+        }
+    }
+
+    @Test
+    public void testNarrow() throws IOException {
+        try (Lexer lexer = Lexer.open("src/test/resources/xor")) {
+            Netlist netlist = new Flattener(Checker.check(Parser.parse(lexer))).flatten("xor");
+            try (ParallelSimulator parallel = new ParallelSimulator(netlist, 3)) {
+                Assert.assertEquals(0b0110, parallel.truthTable()[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package testUtil;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import checker.Checker;
+import checker.Checker.*;
+import parser.Lexer;
+import parser.Parser;
+import parser.Program;
+
+/**
+ * Programs built from source held in a string, for tests.
+ */
+public class Programs {
+
+    public static Program parse(String source) {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        return Parser.parse(new Lexer(Channels.newChannel(new ByteArrayInputStream(bytes))));
+    }
+
+    public static CheckedProgram check(String source) {
+        return Checker.check(parse(source));
+    }
+
+    /**
+     * The names of the definitions, in order.
+     */
+    public static List<String> names(CheckedProgram p) {
+        List<String> names = new ArrayList<>();
+        for (CheckedDefinition d : p.definitions) {
+            names.add(d.ident.name);
+        }
+        return names;
+    }
+}